@@ -3,9 +3,14 @@ package com.moji.glide.webp;
 
 import android.util.Log;
 
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * @author liuchun
@@ -47,4 +52,84 @@ public class Utils {
         }
         return buffer.toByteArray();
     }
+
+    /**
+     * Read the whole stream into a single array borrowed from arrayPool. The first array is
+     * sized from {@link InputStream#available()}, which carries the Content-Length for network
+     * streams, so in the common case the data is read once without any intermediate copy.
+     *
+     * @return a buffer over {@code [0, length)} of the pooled array, the caller must put
+     * {@link ByteBuffer#array()} back to arrayPool; or null if reading failed
+     */
+    public static ByteBuffer inputStreamToPooledBuffer(InputStream is, ArrayPool arrayPool) {
+        final int bufferSize = 16384;
+        byte[] data = null;
+        try {
+            data = arrayPool.get(Math.max(bufferSize, is.available()), byte[].class);
+            int length = 0;
+            while (true) {
+                if (length == data.length) {
+                    int next = is.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    byte[] grown = arrayPool.get(
+                            Math.max(length * 2, length + 1 + is.available()), byte[].class);
+                    System.arraycopy(data, 0, grown, 0, length);
+                    arrayPool.put(data);
+                    data = grown;
+                    data[length++] = (byte) next;
+                }
+                int nRead = is.read(data, length, data.length - length);
+                if (nRead == -1) {
+                    break;
+                }
+                length += nRead;
+            }
+            return ByteBuffer.wrap(data, 0, length);
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.WARN)) {
+                Log.w(TAG, "Error reading data from stream", e);
+            }
+            if (data != null) {
+                arrayPool.put(data);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read up to {@code byteCount} bytes, stop early only at the end of the stream.
+     *
+     * @return the number of bytes actually read
+     */
+    public static int readFully(InputStream is, byte[] buffer, int byteCount) throws IOException {
+        int total = 0;
+        while (total < byteCount) {
+            int read = is.read(buffer, total, byteCount - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * SHA-256 of the whole source, every frame payload included, so that two animations only
+     * share rendered frames when their bytes are the same. Reads all of source, compute it once
+     * per decode.
+     */
+    public static byte[] hashContent(ByteBuffer source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = source.duplicate();
+        buffer.position(0);
+        digest.update(buffer);
+        return digest.digest();
+    }
 }
@@ -2,10 +2,12 @@ package com.moji.glide.webp;
 
 
 
-import com.moji.glide.webp.parser.ANMFChunk;
-import com.moji.glide.webp.parser.BaseChunk;
+import com.moji.glide.webp.parser.WebpFrameIndex;
 
 
+/**
+ * Snapshot of one frame, filled by {@link WebpImage#getFrame(int, WebpFrameInfo)}.
+ */
 public class WebpFrameInfo {
     private int mFrameWidth;
     private int mFrameHeight;
@@ -15,9 +17,9 @@ public class WebpFrameInfo {
     private boolean mBlendPreviousFrame;
     private boolean mDisposeBackgroundColor;
 
-    private final int imagePayloadOffset;
+    private int imagePayloadOffset;
 
-    private final int imagePayloadSize;
+    private int imagePayloadSize;
     private boolean useAlpha;
     public boolean isBlendPreviousFrame() {
         return mBlendPreviousFrame;
@@ -43,6 +45,10 @@ public class WebpFrameInfo {
         return mFrameY;
     }
 
+    public int getFrameDuration() {
+        return mFrameDuration;
+    }
+
     public int getImagePayloadOffset() {
         return imagePayloadOffset;
     }
@@ -55,22 +61,17 @@ public class WebpFrameInfo {
         return useAlpha;
     }
 
-    static WebpFrameInfo createFromChunk(ANMFChunk anmfChunk){
-        return new WebpFrameInfo(anmfChunk);
-    }
-
-    private WebpFrameInfo(ANMFChunk anmfChunk) {
-
-        this.mFrameWidth = anmfChunk.frameWidth;
-        this.mFrameHeight = anmfChunk.frameHeight;
-        this.mFrameDuration = anmfChunk.frameDuration;
-        this.mFrameX = anmfChunk.frameX * 2;
-        this.mFrameY = anmfChunk.frameY * 2;
-        this.mBlendPreviousFrame = anmfChunk.blendingMethod();
-        this.mDisposeBackgroundColor = anmfChunk.disposalMethod();
-        this.imagePayloadOffset = anmfChunk.offset + BaseChunk.CHUNCK_HEADER_OFFSET + 16;
-        this.imagePayloadSize = anmfChunk.payloadSize - 16 + (anmfChunk.payloadSize & 1);
-        this.useAlpha = anmfChunk.alphChunk != null;
+    void set(WebpFrameIndex index, int frame) {
+        this.mFrameWidth = index.getFrameWidth(frame);
+        this.mFrameHeight = index.getFrameHeight(frame);
+        this.mFrameDuration = index.getDuration(frame);
+        this.mFrameX = index.getFrameX(frame);
+        this.mFrameY = index.getFrameY(frame);
+        this.mBlendPreviousFrame = index.hasFlag(frame, WebpFrameIndex.FLAG_BLEND);
+        this.mDisposeBackgroundColor = index.hasFlag(frame, WebpFrameIndex.FLAG_DISPOSE);
+        this.imagePayloadOffset = index.getPayloadOffset(frame);
+        this.imagePayloadSize = index.getPayloadSize(frame);
+        this.useAlpha = index.hasFlag(frame, WebpFrameIndex.FLAG_ALPHA);
     }
 
 }
@@ -1,7 +1,11 @@
 package com.moji.glide.webp;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.NonNull;
 
@@ -11,10 +15,19 @@ import com.bumptech.glide.annotation.GlideModule;
 import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.module.LibraryGlideModule;
+import com.moji.glide.webp.glide.AssetFileDescriptorWebpDecoder;
 import com.moji.glide.webp.glide.ByteBufferWebpDecoder;
+import com.moji.glide.webp.glide.ParcelFileDescriptorWebpDecoder;
 import com.moji.glide.webp.glide.StreamWebpDecoder;
+import com.moji.glide.webp.glide.WebpDecoder;
 import com.moji.glide.webp.glide.WebpDrawable;
+import com.moji.glide.webp.glide.WebpFileRegion;
+import com.moji.glide.webp.glide.WebpFileRegionDecoder;
+import com.moji.glide.webp.glide.WebpFileRegionEncoder;
+import com.moji.glide.webp.glide.WebpFileRegionLoader;
+import com.moji.glide.webp.glide.WebpFrameResourceDecoder;
 
+import java.io.File;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
@@ -32,6 +45,18 @@ public class WebpGlideLibraryModule extends LibraryGlideModule {
                 new ByteBufferWebpDecoder(context,arrayPool,bitmapPool);
 
         registry.prepend(ByteBuffer.class, WebpDrawable.class, byteBufferWebpDecoder)
-                .prepend(InputStream.class, WebpDrawable.class, new StreamWebpDecoder(byteBufferWebpDecoder));
+                .prepend(InputStream.class, WebpDrawable.class, new StreamWebpDecoder(byteBufferWebpDecoder, arrayPool))
+                .prepend(ParcelFileDescriptor.class, WebpDrawable.class,
+                        new ParcelFileDescriptorWebpDecoder(byteBufferWebpDecoder))
+                .prepend(AssetFileDescriptor.class, WebpDrawable.class,
+                        new AssetFileDescriptorWebpDecoder(byteBufferWebpDecoder))
+                // Local Uris and paths are mapped, ahead of Glide's stream loaders
+                .prepend(Uri.class, WebpFileRegion.class, new WebpFileRegionLoader.Factory(context))
+                .prepend(String.class, WebpFileRegion.class, new WebpFileRegionLoader.StringFactory())
+                .prepend(File.class, WebpFileRegion.class, new WebpFileRegionLoader.FileFactory())
+                .prepend(WebpFileRegion.class, WebpDrawable.class, new WebpFileRegionDecoder(byteBufferWebpDecoder))
+                .append(WebpFileRegion.class, new WebpFileRegionEncoder(arrayPool))
+                // Frames of the animation, loaded by WebpFrameLoader
+                .prepend(WebpDecoder.class, Bitmap.class, new WebpFrameResourceDecoder());
     }
 }
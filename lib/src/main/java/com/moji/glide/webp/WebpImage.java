@@ -4,63 +4,178 @@ package com.moji.glide.webp;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
-import com.moji.glide.webp.io.ByteBufferReader;
+import com.moji.glide.webp.io.ByteBufferPayloadSource;
+import com.moji.glide.webp.io.ByteBufferWebPReader;
+import com.moji.glide.webp.io.FileChannelReader;
+import com.moji.glide.webp.io.FrameInputStream;
+import com.moji.glide.webp.io.GrowingPayloadSource;
+import com.moji.glide.webp.io.PagedPayloadSource;
+import com.moji.glide.webp.io.PayloadSource;
 import com.moji.glide.webp.io.WebPReader;
 import com.moji.glide.webp.io.WebPWriter;
-import com.moji.glide.webp.parser.ANIMChunk;
-import com.moji.glide.webp.parser.ANMFChunk;
 import com.moji.glide.webp.parser.BaseChunk;
+import com.moji.glide.webp.parser.IncrementalWebPParser;
 import com.moji.glide.webp.parser.VP8XChunk;
 import com.moji.glide.webp.parser.WebPParser;
+import com.moji.glide.webp.parser.WebpFrameIndex;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.FileChannel;
 
 public class WebpImage {
 
     // See comment in fixFrameDuration below.
     private static final int MIN_FRAME_DURATION_MS = 20;
     private static final int FRAME_DURATION_MS_FOR_MIN = 100;
+    // RIFF header + VP8X chunk put in front of every frame payload
+    private static final int VP8X_PAYLOAD_SIZE = 10;
+    private static final int FRAME_HEADER_SIZE = 12 + BaseChunk.CHUNCK_HEADER_OFFSET + VP8X_PAYLOAD_SIZE;
+    private static final int FRAME_HEADER_RIFF_SIZE_OFFSET = 4;
+    private static final int FRAME_HEADER_FLAGS_OFFSET = 12 + BaseChunk.CHUNCK_HEADER_OFFSET;
+    private static final int FRAME_HEADER_FLAG_ALPHA = 0x10;
+    // Same as the default temp storage of BitmapFactory.decodeStream
+    private static final int DECODE_STORAGE_SIZE = 16 * 1024;
 
-    private int mWidth;
-    private int mHeight;
+    private volatile int mWidth;
+    private volatile int mHeight;
 
-    private int mFrameCount;
-    private int[] mFrameDurations;
+    private volatile int mFrameCount;
     private int mLoopCount;
     private int mBackgroundColor;
-    private ByteBuffer mSource;
+    private PayloadSource mPayloadSource;
 
-    private List<WebpFrameInfo> mWebpFrames = new ArrayList<>();
+    /** Set while the file is still being received, see {@link #appendData}. */
+    private IncrementalWebPParser mIncrementalParser;
+    private volatile boolean mComplete;
+
+    private WebpFrameIndex mFrameIndex;
+
+    /**
+     * Frames are rendered one at a time by the owning decoder, so the header template, the
+     * stream over the source and the decode storage are shared by all frames.
+     */
+    private byte[] mFrameHeader;
+    private FrameInputStream mFrameStream;
+    private byte[] mDecodeStorage;
 
     private WebpImage() {
 
     }
 
     public static WebpImage createFromSource(ByteBuffer source) throws IOException {
-        try (WebPReader webPReader = new WebPReader(new ByteBufferReader(source))) {
-            WebpImage image = new WebpImage();
-            List<BaseChunk> chunks = WebPParser.parse(webPReader);
-            for (BaseChunk chunk : chunks) {
-                if (chunk instanceof VP8XChunk) {
-                    image.mWidth = ((VP8XChunk) chunk).canvasWidth;
-                    image.mHeight = ((VP8XChunk) chunk).canvasHeight;
-                } else if (chunk instanceof ANIMChunk) {
-                    image.mBackgroundColor = ((ANIMChunk) chunk).backgroundColor;
-                    image.mLoopCount = ((ANIMChunk) chunk).loopCount;
-                } else if (chunk instanceof ANMFChunk) {
-                    image.mWebpFrames.add(WebpFrameInfo.createFromChunk((ANMFChunk) chunk));
-                }
-            }
-            image.fixFrameDurations();
-            image.mFrameCount = image.mWebpFrames.size();
-            image.mSource = source;
-            return image;
+        return createFromSource(source, null);
+    }
+
+    /**
+     * @param header VP8X chunk already read from source, or null to parse the whole file
+     */
+    public static WebpImage createFromSource(ByteBuffer source, VP8XChunk header) throws IOException {
+        try (WebPReader webPReader = new ByteBufferWebPReader(source)) {
+            return create(WebPParser.parseIndex(webPReader, header), new ByteBufferPayloadSource(source));
         }
     }
 
+    /**
+     * @param index frame index of source, e.g. loaded back from a cache, it isn't checked
+     *              against the source
+     */
+    public static WebpImage createFromIndex(ByteBuffer source, WebpFrameIndex index) {
+        return create(index, new ByteBufferPayloadSource(source));
+    }
+
+    /**
+     * Keep only the frame index in memory, frame payloads are read from the channel on demand
+     * through a small window of pages, see {@link PagedPayloadSource}.
+     * The image owns the channel and closes it in {@link #dispose()}.
+     */
+    public static WebpImage createFromChannel(FileChannel channel) throws IOException {
+        return createFromChannel(channel, 0, channel.size());
+    }
+
+    /**
+     * @param offset offset of the WebP data in channel, e.g. of an asset in the apk
+     * @param length length of the WebP data
+     * @see #createFromChannel(FileChannel)
+     */
+    public static WebpImage createFromChannel(FileChannel channel, long offset, long length) throws IOException {
+        WebpFrameIndex index;
+        try (WebPReader webPReader = new WebPReader(new FileChannelReader(channel, offset, length))) {
+            index = WebPParser.parseIndex(webPReader, null);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return create(index, new PagedPayloadSource(channel, offset));
+    }
+
+    /**
+     * Create an image for a file that is still being received. Feed it with {@link #appendData}
+     * from a single thread and call {@link #finish()} at the end of the file, frames can be
+     * rendered as soon as {@link #getFrameCount()} covers them.
+     *
+     * @param expectedLength expected size of the file, or 0 if unknown
+     */
+    public static WebpImage createIncremental(int expectedLength) {
+        IncrementalWebPParser parser = new IncrementalWebPParser();
+        WebpImage image = create(parser.getIndex(), new GrowingPayloadSource(expectedLength));
+        image.mIncrementalParser = parser;
+        image.mComplete = false;
+        return image;
+    }
+
+    private static WebpImage create(WebpFrameIndex index, PayloadSource payloadSource) {
+        WebpImage image = new WebpImage();
+        image.mFrameIndex = index;
+        image.mPayloadSource = payloadSource;
+        image.mFrameHeader = createFrameHeader();
+        image.mFrameStream = new FrameInputStream(image.mFrameHeader, payloadSource);
+        image.updateFromIndex();
+        image.mComplete = true;
+        return image;
+    }
+
+    private void updateFromIndex() {
+        mBackgroundColor = mFrameIndex.getBackgroundColor();
+        mLoopCount = mFrameIndex.getLoopCount();
+        mWidth = mFrameIndex.getCanvasWidth();
+        mHeight = mFrameIndex.getCanvasHeight();
+        mFrameCount = mFrameIndex.getFrameCount();
+    }
+
+    /**
+     * Append the next bytes of a file created by {@link #createIncremental(int)} and index the
+     * frames they complete.
+     */
+    public void appendData(byte[] buffer, int start, int byteCount) throws IOException {
+        if (mComplete) {
+            throw new IllegalStateException("Image already complete");
+        }
+        GrowingPayloadSource source = (GrowingPayloadSource) mPayloadSource;
+        source.append(buffer, start, byteCount);
+        mIncrementalParser.parse(source.getData());
+        updateFromIndex();
+    }
+
+    /**
+     * Mark the end of the file, the frame count won't change anymore.
+     */
+    public void finish() {
+        mIncrementalParser = null;
+        mComplete = true;
+    }
+
+    /**
+     * @return false while frames may still be appended to this image
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    WebpFrameIndex getFrameIndex() {
+        return mFrameIndex;
+    }
+
     public int getWidth() {
         return mWidth;
     }
@@ -74,7 +189,12 @@ public class WebpImage {
     }
 
     public int[] getFrameDurations() {
-        return mFrameDurations;
+        int frameCount = mFrameCount;
+        int[] frameDurations = new int[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            frameDurations[i] = getFrameDuration(i);
+        }
+        return frameDurations;
     }
 
     public int getLoopCount() {
@@ -86,66 +206,160 @@ public class WebpImage {
     }
 
     /**
-     * Adjust the frame duration to respect logic for minimum frame duration times
+     * @return bytes of compressed data held in memory for this image
+     */
+    public int getByteSize() {
+        return mPayloadSource.getResidentSize();
+    }
+
+    /**
+     * Frame duration adjusted to respect logic for minimum frame duration times
      */
-    private void fixFrameDurations() {
-        mFrameDurations = new int[mWebpFrames.size()];
-        for (int i = 0; i < mWebpFrames.size(); i++) {
-            int frameDurationMs = mWebpFrames.get(i).mFrameDuration;
-            if (frameDurationMs < MIN_FRAME_DURATION_MS) {
-                frameDurationMs = FRAME_DURATION_MS_FOR_MIN;
-            }
-            mFrameDurations[i] = frameDurationMs;
+    public int getFrameDuration(int frameNumber) {
+        int frameDurationMs = mFrameIndex.getDuration(frameNumber);
+        if (frameDurationMs < MIN_FRAME_DURATION_MS) {
+            frameDurationMs = FRAME_DURATION_MS_FOR_MIN;
         }
+        return frameDurationMs;
     }
 
-    public WebpFrameInfo getFrame(int frameNumber) {
-        return mWebpFrames.get(frameNumber);
+    /**
+     * Copy the parameters of a frame into outFrameInfo, which can be reused between calls.
+     */
+    public WebpFrameInfo getFrame(int frameNumber, WebpFrameInfo outFrameInfo) {
+        outFrameInfo.set(mFrameIndex, frameNumber);
+        return outFrameInfo;
+    }
+
+    public int getMaxFrameWidth() {
+        return mFrameIndex.getMaxFrameWidth();
+    }
+
+    public int getMaxFrameHeight() {
+        return mFrameIndex.getMaxFrameHeight();
+    }
+
+    public int getFrameX(int frameNumber) {
+        return mFrameIndex.getFrameX(frameNumber);
+    }
+
+    public int getFrameY(int frameNumber) {
+        return mFrameIndex.getFrameY(frameNumber);
+    }
+
+    public int getFrameWidth(int frameNumber) {
+        return mFrameIndex.getFrameWidth(frameNumber);
+    }
+
+    public int getFrameHeight(int frameNumber) {
+        return mFrameIndex.getFrameHeight(frameNumber);
+    }
+
+    public boolean isBlendPreviousFrame(int frameNumber) {
+        return mFrameIndex.hasFlag(frameNumber, WebpFrameIndex.FLAG_BLEND);
+    }
+
+    public boolean isDisposeBackgroundColor(int frameNumber) {
+        return mFrameIndex.hasFlag(frameNumber, WebpFrameIndex.FLAG_DISPOSE);
+    }
+
+    public boolean isUseAlpha(int frameNumber) {
+        return mFrameIndex.hasFlag(frameNumber, WebpFrameIndex.FLAG_ALPHA);
+    }
+
+    /**
+     * @return true if the frame covers the whole canvas
+     */
+    public boolean isFullFrame(int frameNumber) {
+        return mFrameIndex.hasFlag(frameNumber, WebpFrameIndex.FLAG_FULL_FRAME);
+    }
+
+    /**
+     * @return true if the frame can be rendered without any previous frame
+     */
+    public boolean isKeyFrame(int frameNumber) {
+        return mFrameIndex.isKeyFrame(frameNumber);
+    }
+
+    /**
+     * @return the last key frame at or before frameNumber, compositing frameNumber starts there
+     */
+    public int getNearestKeyFrame(int frameNumber) {
+        return mFrameIndex.getNearestKeyFrame(frameNumber);
     }
 
     public void dispose() {
-        mWebpFrames.clear();
-    }
-
-    private int encodeFrame(WebPWriter writer, WebpFrameInfo frameInfo) {
-        int vp8xPayloadSize = 10;
-        int size = 12 + (BaseChunk.CHUNCK_HEADER_OFFSET + vp8xPayloadSize) + frameInfo.getImagePayloadSize();
-        writer.reset(size);
-        // Webp Header
-        writer.putFourCC("RIFF");
-        writer.putUInt32(size);
-        writer.putFourCC("WEBP");
-
-        //VP8X
-        writer.putUInt32(VP8XChunk.ID);
-        writer.putUInt32(vp8xPayloadSize);
-        writer.putByte((byte) (frameInfo.isUseAlpha() ? 0x10 : 0));
-        writer.putUInt24(0);
-        writer.put1Based(frameInfo.getFrameWidth());
-        writer.put1Based(frameInfo.getFrameHeight());
-
-        //image data
-        try (WebPReader reader = new WebPReader(new ByteBufferReader(mSource))) {
-            reader.reset();
-            reader.skip(frameInfo.getImagePayloadOffset());
-            reader.read(writer.toByteArray(), writer.position(), frameInfo.getImagePayloadSize());
+        try {
+            mPayloadSource.close();
         } catch (IOException e) {
+            // ignore
+        }
+        mFrameStream = null;
+        mDecodeStorage = null;
+    }
+
+    private static byte[] createFrameHeader() {
+        try (WebPWriter writer = new WebPWriter()) {
+            writer.reset(FRAME_HEADER_SIZE);
+            // Webp Header, RIFF size is filled for every frame
+            writer.putFourCC("RIFF");
+            writer.putUInt32(0);
+            writer.putFourCC("WEBP");
+
+            //VP8X, flags and canvas size are filled for every frame
+            writer.putUInt32(VP8XChunk.ID);
+            writer.putUInt32(VP8X_PAYLOAD_SIZE);
+            writer.skip(VP8X_PAYLOAD_SIZE);
 
+            byte[] header = new byte[FRAME_HEADER_SIZE];
+            System.arraycopy(writer.toByteArray(), 0, header, 0, FRAME_HEADER_SIZE);
+            return header;
         }
-        return size;
     }
 
-    public void renderFrame(int targetWidth, int targetHeight, WebpFrameInfo frameInfo, Bitmap frameBitmap) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
+    private static void putUInt24(byte[] buf, int offset, int val) {
+        buf[offset] = (byte) (val & 0xff);
+        buf[offset + 1] = (byte) ((val >> 8) & 0xff);
+        buf[offset + 2] = (byte) ((val >> 16) & 0xff);
+    }
+
+    private static void putUInt32(byte[] buf, int offset, int val) {
+        putUInt24(buf, offset, val);
+        buf[offset + 3] = (byte) ((val >> 24) & 0xff);
+    }
+
+    private void encodeFrameHeader(int frameNumber) {
+        int size = FRAME_HEADER_SIZE + mFrameIndex.getPayloadSize(frameNumber);
+        putUInt32(mFrameHeader, FRAME_HEADER_RIFF_SIZE_OFFSET, size);
+        mFrameHeader[FRAME_HEADER_FLAGS_OFFSET] = (byte) (isUseAlpha(frameNumber) ? FRAME_HEADER_FLAG_ALPHA : 0);
+        // Canvas Width/Height Minus One
+        putUInt24(mFrameHeader, FRAME_HEADER_FLAGS_OFFSET + 4, getFrameWidth(frameNumber) - 1);
+        putUInt24(mFrameHeader, FRAME_HEADER_FLAGS_OFFSET + 7, getFrameHeight(frameNumber) - 1);
+    }
+
+    public void renderFrame(int targetWidth, int targetHeight, int frameNumber, Bitmap frameBitmap) {
+        renderFrame(targetWidth, targetHeight, frameNumber, frameBitmap, new BitmapFactory.Options());
+    }
+
+    /**
+     * @param frameBitmap bitmap to decode into, or null to let BitmapFactory allocate one
+     * @param options     reused between frames, its input fields are reset for every frame except
+     *                    {@link BitmapFactory.Options#inSampleSize} which is left to the caller
+     * @return the decoded frame, frameBitmap if it could be reused, or null if decoding failed
+     */
+    public Bitmap renderFrame(int targetWidth, int targetHeight, int frameNumber, Bitmap frameBitmap,
+                              BitmapFactory.Options options) {
         options.inJustDecodeBounds = false;
         options.inBitmap = frameBitmap;
         options.outHeight = targetHeight;
         options.outWidth = targetWidth;
-
-        try (WebPWriter webPWriter = new WebPWriter()) {
-            int length = encodeFrame(webPWriter, frameInfo);
-            byte[] bytes = webPWriter.toByteArray();
-            BitmapFactory.decodeByteArray(bytes, 0, length, options);
+        if (mDecodeStorage == null) {
+            mDecodeStorage = new byte[DECODE_STORAGE_SIZE];
         }
+        options.inTempStorage = mDecodeStorage;
+
+        encodeFrameHeader(frameNumber);
+        mFrameStream.reset(mFrameIndex.getPayloadOffset(frameNumber), mFrameIndex.getPayloadSize(frameNumber));
+        return BitmapFactory.decodeStream(mFrameStream, null, options);
     }
 }
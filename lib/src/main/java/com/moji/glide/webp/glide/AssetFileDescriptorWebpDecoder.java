@@ -0,0 +1,49 @@
+package com.moji.glide.webp.glide;
+
+import android.content.res.AssetFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Map the animated WebP region of an {@link AssetFileDescriptor}, assets stored uncompressed
+ * in the apk are mapped in place, see {@link MappedWebpDecoder}.
+ * The descriptor belongs to Glide, so the channel is never closed here.
+ */
+public class AssetFileDescriptorWebpDecoder extends MappedWebpDecoder<AssetFileDescriptor> {
+
+    public AssetFileDescriptorWebpDecoder(ByteBufferWebpDecoder byteBufferWebpDecoder) {
+        super(byteBufferWebpDecoder);
+    }
+
+    @Override
+    FileChannel openChannel(@NonNull AssetFileDescriptor source) {
+        return new FileInputStream(source.getFileDescriptor()).getChannel();
+    }
+
+    @Override
+    void closeChannel(@NonNull AssetFileDescriptor source, FileChannel channel) {
+    }
+
+    @Override
+    FileChannel openPagedChannel(@NonNull AssetFileDescriptor source) throws IOException {
+        return openDuplicateChannel(source.getParcelFileDescriptor());
+    }
+
+    @Override
+    long getStartOffset(@NonNull AssetFileDescriptor source) {
+        return source.getStartOffset();
+    }
+
+    @Override
+    long getLength(@NonNull AssetFileDescriptor source, FileChannel channel) throws IOException {
+        long length = source.getLength();
+        if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+            length = channel.size() - source.getStartOffset();
+        }
+        return length;
+    }
+}
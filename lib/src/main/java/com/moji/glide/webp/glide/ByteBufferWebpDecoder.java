@@ -14,46 +14,159 @@ import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.load.resource.UnitTransformation;
 import com.bumptech.glide.load.resource.gif.GifBitmapProvider;
+import com.bumptech.glide.request.target.Target;
 import com.moji.glide.webp.Utils;
 import com.moji.glide.webp.WebpImage;
-import com.moji.glide.webp.io.ByteBufferReader;
+import com.moji.glide.webp.io.ByteBufferWebPReader;
+import com.moji.glide.webp.io.WebPReader;
+import com.moji.glide.webp.parser.VP8XChunk;
 import com.moji.glide.webp.parser.WebPParser;
+import com.moji.glide.webp.parser.WebpFrameIndex;
 
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 
 public class ByteBufferWebpDecoder implements ResourceDecoder<ByteBuffer, WebpDrawable> {
 
     private final Context mContext;
     private final GifBitmapProvider mProvider;
+    private final ArrayPool mArrayPool;
+    private final WebpIndexCache mIndexCache;
+    /**
+     * Glide calls handles() and decode() for the same source on the same thread, keep the header
+     * read by handles() so decode() doesn't parse it again.
+     */
+    private final ThreadLocal<HandledSource> mHandledSource = new ThreadLocal<>();
 
     public ByteBufferWebpDecoder(Context context, ArrayPool byteArrayPool, BitmapPool bitmapPool) {
         this.mContext = context.getApplicationContext();
         this.mProvider = new GifBitmapProvider(bitmapPool, byteArrayPool);
+        this.mArrayPool = byteArrayPool;
+        this.mIndexCache = WebpIndexCache.get(context);
+        WebpFrameCache.init(context);
     }
 
     @Override
     public boolean handles(@NonNull ByteBuffer source, @NonNull Options options) throws IOException {
-        return WebPParser.isAWebP(new ByteBufferReader(source));
+        VP8XChunk header = WebPParser.parseAnimatedHeader(source);
+        if (header == null) {
+            mHandledSource.remove();
+            return false;
+        }
+        mHandledSource.set(new HandledSource(source, header));
+        return true;
+    }
+
+    private VP8XChunk obtainHeader(ByteBuffer source) throws IOException {
+        HandledSource handled = mHandledSource.get();
+        mHandledSource.remove();
+        if (handled != null && handled.source.get() == source) {
+            return handled.header;
+        }
+        VP8XChunk header = WebPParser.parseAnimatedHeader(source);
+        if (header == null) {
+            throw new IOException("Not an animated WebP");
+        }
+        return header;
+    }
+
+    private WebpFrameIndex obtainIndex(ByteBuffer source, @Nullable byte[] contentHash, Options options)
+            throws IOException {
+        VP8XChunk header = obtainHeader(source);
+        boolean useCache = options.get(WebpStrategy.CACHE_FRAME_INDEX);
+        WebpFrameIndex index = useCache ? mIndexCache.get(source, contentHash) : null;
+        if (index == null) {
+            try (WebPReader reader = new ByteBufferWebPReader(source)) {
+                index = WebPParser.parseIndex(reader, header);
+            }
+            if (useCache) {
+                mIndexCache.put(source, contentHash, index);
+            }
+        }
+        return index;
     }
 
     @Nullable
     @Override
     public Resource<WebpDrawable> decode(@NonNull ByteBuffer source, int width, int height, @NonNull Options options) throws IOException {
+        return decode(source, width, height, options, null);
+    }
+
+    /**
+     * @param pooledData the array backing source if it was borrowed from the ArrayPool, it is
+     *                   released together with the decoder, or right away if decoding fails
+     */
+    @Nullable
+    Resource<WebpDrawable> decode(@NonNull ByteBuffer source, int width, int height, @NonNull Options options,
+                                  @Nullable byte[] pooledData) throws IOException {
+        WebpImage webp;
+        byte[] contentHash;
+        try {
+            // Hashed once, it keys the frame index as well as the shared and stored frames
+            contentHash = needsContentHash(options) ? Utils.hashContent(source) : null;
+            webp = WebpImage.createFromIndex(source, obtainIndex(source, contentHash, options));
+        } catch (IOException | RuntimeException e) {
+            if (pooledData != null) {
+                mArrayPool.put(pooledData);
+            }
+            throw e;
+        }
+        return decode(webp, source, contentHash, width, height, options, pooledData);
+    }
+
+    private static boolean needsContentHash(Options options) {
+        return options.get(WebpStrategy.SHARE_FRAMES) || options.get(WebpStrategy.STORE_FRAMES_ON_DISK);
+    }
 
-        int length = source.remaining();
-        byte[] data = new byte[length];
-        source.get(data, 0, length);
+    /**
+     * Create the drawable for an image that has already been parsed, the image is disposed if
+     * its first frame can't be rendered.
+     */
+    @Nullable
+    Resource<WebpDrawable> decode(@NonNull WebpImage webp, @NonNull ByteBuffer rawData, int width, int height,
+                                  @NonNull Options options, @Nullable byte[] pooledData) {
+        return decode(webp, rawData, null, width, height, options, pooledData);
+    }
 
-        WebpImage webp = WebpImage.createFromSource(source);
+    /**
+     * @param contentHash hash of rawData if it was already computed, see {@link Utils#hashContent}
+     */
+    @Nullable
+    private Resource<WebpDrawable> decode(@NonNull WebpImage webp, @NonNull ByteBuffer rawData,
+                                          @Nullable byte[] contentHash, int width, int height,
+                                          @NonNull Options options, @Nullable byte[] pooledData) {
         int sampleSize = Utils.getSampleSize(webp.getWidth(), webp.getHeight(), width, height);
         WebpFrameCacheStrategy cacheStrategy = options.get(WebpStrategy.FRAME_CACHE_STRATEGY);
         WebpFramePlayStrategy playStrategy = options.get(WebpStrategy.FRAME_PLAY_STRATEGY);
-        WebpDecoder webpDecoder = new WebpDecoder(mProvider, webp, source, cacheStrategy,playStrategy, sampleSize);
+        WebpDecoder webpDecoder = new WebpDecoder(mProvider, webp, rawData, cacheStrategy,playStrategy, sampleSize);
+        webpDecoder.setPooledData(pooledData);
+        webpDecoder.setIncrementalComposition(options.get(WebpStrategy.INCREMENTAL_COMPOSITION));
+        webpDecoder.setFrameCompression(options.get(WebpStrategy.COMPRESS_EVICTED_FRAMES),
+                options.get(WebpStrategy.RGB_565_EVICTED_FRAMES));
+        webpDecoder.setPlaybackOrderEviction(options.get(WebpStrategy.PLAYBACK_ORDER_EVICTION));
+        if (options.get(WebpStrategy.RENDER_AT_TARGET_SIZE)
+                && width != Target.SIZE_ORIGINAL && height != Target.SIZE_ORIGINAL) {
+            webpDecoder.setExactSize(width, height);
+        }
+        if (webp.isComplete() && rawData.limit() > 0) {
+            boolean shareFrames = options.get(WebpStrategy.SHARE_FRAMES);
+            boolean storeFrames = options.get(WebpStrategy.STORE_FRAMES_ON_DISK);
+            if ((shareFrames || storeFrames) && contentHash == null) {
+                contentHash = Utils.hashContent(rawData);
+            }
+            if (shareFrames) {
+                webpDecoder.shareFrames(contentHash);
+            }
+            if (storeFrames) {
+                webpDecoder.storeFramesOnDisk(WebpFrameDiskStore.get(mContext), contentHash);
+            }
+        }
         webpDecoder.advance();
         Bitmap firstFrame = webpDecoder.getNextFrame();
         if (firstFrame == null) {
+            webpDecoder.clear();
             return null;
         }
 
@@ -62,4 +175,14 @@ public class ByteBufferWebpDecoder implements ResourceDecoder<ByteBuffer, WebpDr
         return new WebpDrawableResource(new WebpDrawable(mContext, webpDecoder, unitTransformation, width, height,
                 firstFrame));
     }
+
+    private static final class HandledSource {
+        final WeakReference<ByteBuffer> source;
+        final VP8XChunk header;
+
+        HandledSource(ByteBuffer source, VP8XChunk header) {
+            this.source = new WeakReference<>(source);
+            this.header = header;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.moji.glide.webp.glide;
+
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+import com.moji.glide.webp.WebpImage;
+import com.moji.glide.webp.parser.WebPParser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decode animated WebP from a file region mapped with {@link FileChannel#map}, the compressed
+ * data stays out of the Java heap and is paged in by the kernel on demand. Regions of at least
+ * {@link WebpStrategy#PAGED_SOURCE_MIN_SIZE} are read page by page instead.
+ *
+ * @param <T> a source that can be opened as a file channel
+ */
+public abstract class MappedWebpDecoder<T> implements ResourceDecoder<T, WebpDrawable> {
+
+    private final ByteBufferWebpDecoder mByteBufferWebpDecoder;
+
+    MappedWebpDecoder(ByteBufferWebpDecoder byteBufferWebpDecoder) {
+        this.mByteBufferWebpDecoder = byteBufferWebpDecoder;
+    }
+
+    /**
+     * Open a channel over the source, it is closed by {@link #closeChannel} and must only be
+     * read with positional reads, the file offset of a shared descriptor is left untouched.
+     */
+    abstract FileChannel openChannel(@NonNull T source) throws IOException;
+
+    abstract void closeChannel(@NonNull T source, FileChannel channel) throws IOException;
+
+    /**
+     * Open a channel of its own for a paged image, which outlives the source and closes the
+     * channel when it is disposed.
+     */
+    abstract FileChannel openPagedChannel(@NonNull T source) throws IOException;
+
+    /**
+     * @return offset of the WebP data inside the channel
+     */
+    abstract long getStartOffset(@NonNull T source);
+
+    /**
+     * @return length of the WebP data inside the channel
+     */
+    abstract long getLength(@NonNull T source, FileChannel channel) throws IOException;
+
+    @Override
+    public boolean handles(@NonNull T source, @NonNull Options options) throws IOException {
+        FileChannel channel = openChannel(source);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(WebPParser.ANIMATED_HEADER_SIZE);
+            long position = getStartOffset(source);
+            while (header.hasRemaining()) {
+                int read = channel.read(header, position + header.position());
+                if (read == -1) {
+                    break;
+                }
+            }
+            header.flip();
+            return WebPParser.parseAnimatedHeader(header) != null;
+        } finally {
+            closeChannel(source, channel);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Resource<WebpDrawable> decode(@NonNull T source, int width, int height, @NonNull Options options) throws IOException {
+        FileChannel channel = openChannel(source);
+        long length;
+        MappedByteBuffer buffer = null;
+        try {
+            length = getLength(source, channel);
+            if (length < options.get(WebpStrategy.PAGED_SOURCE_MIN_SIZE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, getStartOffset(source), length);
+            }
+        } finally {
+            // The mapping stays valid after the channel is closed
+            closeChannel(source, channel);
+        }
+        if (buffer != null) {
+            return mByteBufferWebpDecoder.decode(buffer, width, height, options);
+        }
+        // The image owns the channel from now on and closes it when disposed
+        WebpImage webp = WebpImage.createFromChannel(openPagedChannel(source), getStartOffset(source), length);
+        boolean handedOver = false;
+        try {
+            Resource<WebpDrawable> resource = mByteBufferWebpDecoder.decode(webp, ByteBuffer.allocate(0),
+                    width, height, options, null);
+            handedOver = true;
+            return resource;
+        } finally {
+            if (!handedOver) {
+                // The drawable never took the image, close its channel here
+                webp.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return a channel over a duplicate of descriptor, closing the channel closes the duplicate
+     */
+    static FileChannel openDuplicateChannel(@NonNull ParcelFileDescriptor descriptor) throws IOException {
+        return new ParcelFileDescriptor.AutoCloseInputStream(descriptor.dup()).getChannel();
+    }
+}
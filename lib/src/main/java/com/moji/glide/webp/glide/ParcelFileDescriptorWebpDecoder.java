@@ -0,0 +1,47 @@
+package com.moji.glide.webp.glide;
+
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Map the animated WebP behind a {@link ParcelFileDescriptor}, see {@link MappedWebpDecoder}.
+ * The descriptor belongs to Glide, so the channel is never closed here.
+ * <p>
+ * The whole file is mapped: a descriptor doesn't tell the offset of an asset inside the apk,
+ * assets are opened by {@link WebpFileRegionLoader} instead.
+ */
+public class ParcelFileDescriptorWebpDecoder extends MappedWebpDecoder<ParcelFileDescriptor> {
+
+    public ParcelFileDescriptorWebpDecoder(ByteBufferWebpDecoder byteBufferWebpDecoder) {
+        super(byteBufferWebpDecoder);
+    }
+
+    @Override
+    FileChannel openChannel(@NonNull ParcelFileDescriptor source) {
+        return new FileInputStream(source.getFileDescriptor()).getChannel();
+    }
+
+    @Override
+    void closeChannel(@NonNull ParcelFileDescriptor source, FileChannel channel) {
+    }
+
+    @Override
+    FileChannel openPagedChannel(@NonNull ParcelFileDescriptor source) throws IOException {
+        return openDuplicateChannel(source);
+    }
+
+    @Override
+    long getStartOffset(@NonNull ParcelFileDescriptor source) {
+        return 0;
+    }
+
+    @Override
+    long getLength(@NonNull ParcelFileDescriptor source, FileChannel channel) throws IOException {
+        return channel.size();
+    }
+}
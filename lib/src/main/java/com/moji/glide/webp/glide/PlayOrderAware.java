@@ -0,0 +1,20 @@
+package com.moji.glide.webp.glide;
+
+/**
+ * Optionally implemented by a {@link WebpFramePlayStrategy} that can tell when a frame is played
+ * next, see {@link WebpStrategy#PLAYBACK_ORDER_EVICTION}. Frames of a strategy that doesn't
+ * implement it are evicted least recently used first.
+ */
+public interface PlayOrderAware {
+
+    /**
+     * Number of frames played after currentIndex until frameIndex is played again, used by the
+     * frame cache to evict the frame needed the furthest in the future. Called on any thread
+     * evicting frames, it must only depend on its arguments.
+     *
+     * @param previousIndex frame played before currentIndex, -1 if none
+     * @param currentIndex  frame being played, -1 before the first one
+     * @return at least 1, frameCount or more for currentIndex itself
+     */
+    int getNextUseDistance(int previousIndex, int currentIndex, int frameIndex, int frameCount);
+}
@@ -0,0 +1,163 @@
+package com.moji.glide.webp.glide;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+import com.moji.glide.webp.WebpImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Play an animated WebP while it is still being downloaded.
+ * <p>
+ * Glide reads the whole source before decoding, so this loader reads a stream supplied by the
+ * app instead: frames are indexed as soon as their bytes arrive, the drawable is delivered once
+ * the first frame is available and its frame count grows until the end of the stream. It plays
+ * the received frames and waits on the last one for the next to arrive, loops are only counted
+ * once the stream is complete.
+ * <p>
+ * The drawable isn't managed by a Glide request, call {@link WebpDrawable#stop()} and
+ * {@link WebpDrawable#recycle()} when it isn't displayed anymore.
+ */
+public final class ProgressiveWebpLoader {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    public interface Callback {
+        /**
+         * The first frame has been received, called on the main thread.
+         */
+        void onDrawableReady(@NonNull WebpDrawable drawable);
+
+        /**
+         * All the frames have been received, called on the main thread.
+         */
+        void onLoadComplete();
+
+        /**
+         * Reading or parsing the stream failed, called on the main thread. If the drawable was
+         * already delivered it keeps playing the frames received so far.
+         */
+        void onLoadFailed(@NonNull IOException e);
+    }
+
+    private ProgressiveWebpLoader() {
+    }
+
+    /**
+     * Read stream on executor and deliver the drawable to callback, the stream is closed at the end.
+     *
+     * @param expectedLength size of the file if known, e.g. from Content-Length, or 0
+     * @param width          target width, as for a Glide request
+     * @param height         target height, as for a Glide request
+     * @param options        read for the {@link WebpStrategy} options
+     */
+    public static void load(@NonNull Context context, @NonNull InputStream stream, int expectedLength,
+                            int width, int height, @NonNull Options options,
+                            @NonNull Executor executor, @NonNull Callback callback) {
+        executor.execute(new LoadTask(context.getApplicationContext(), stream, expectedLength, width, height,
+                options, callback));
+    }
+
+    private static final class LoadTask implements Runnable {
+        private final Context context;
+        private final InputStream stream;
+        private final int expectedLength;
+        private final int width;
+        private final int height;
+        private final Options options;
+        private final Callback callback;
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        LoadTask(Context context, InputStream stream, int expectedLength, int width, int height,
+                 Options options, Callback callback) {
+            this.context = context;
+            this.stream = stream;
+            this.expectedLength = expectedLength;
+            this.width = width;
+            this.height = height;
+            this.options = options;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            Glide glide = Glide.get(context);
+            ArrayPool arrayPool = glide.getArrayPool();
+            ByteBufferWebpDecoder decoder = new ByteBufferWebpDecoder(context, arrayPool, glide.getBitmapPool());
+            WebpImage webp = WebpImage.createIncremental(expectedLength);
+            byte[] buffer = arrayPool.get(READ_BUFFER_SIZE, byte[].class);
+            boolean delivered = false;
+            try {
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    webp.appendData(buffer, 0, read);
+                    if (!delivered && webp.getFrameCount() > 0) {
+                        deliver(decoder, webp);
+                        delivered = true;
+                    }
+                }
+                webp.finish();
+                if (!delivered) {
+                    throw new IOException("No frame received");
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoadComplete();
+                    }
+                });
+            } catch (final IOException e) {
+                fail(webp, delivered, e);
+            } catch (RuntimeException e) {
+                fail(webp, delivered, new IOException(e));
+            } finally {
+                arrayPool.put(buffer);
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        private void deliver(ByteBufferWebpDecoder decoder, WebpImage webp) throws IOException {
+            Resource<WebpDrawable> resource = decoder.decode(webp, ByteBuffer.allocate(0), width, height,
+                    options, null);
+            if (resource == null) {
+                throw new IOException("Failed to render the first frame");
+            }
+            final WebpDrawable drawable = resource.get();
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onDrawableReady(drawable);
+                }
+            });
+        }
+
+        private void fail(WebpImage webp, boolean delivered, final IOException e) {
+            if (delivered) {
+                // Keep playing what was received
+                webp.finish();
+            } else {
+                webp.dispose();
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onLoadFailed(e);
+                }
+            });
+        }
+    }
+}
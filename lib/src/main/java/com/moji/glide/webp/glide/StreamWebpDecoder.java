@@ -6,7 +6,9 @@ import androidx.annotation.Nullable;
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
 import com.moji.glide.webp.Utils;
+import com.moji.glide.webp.parser.WebPParser;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,30 +17,43 @@ import java.nio.ByteBuffer;
 public class StreamWebpDecoder implements ResourceDecoder<InputStream, WebpDrawable> {
 
     private ByteBufferWebpDecoder mByteBufferWebpDecoder;
+    private final ArrayPool mArrayPool;
 
-    public StreamWebpDecoder(ByteBufferWebpDecoder byteBufferWebpDecoder){
+    public StreamWebpDecoder(ByteBufferWebpDecoder byteBufferWebpDecoder, ArrayPool arrayPool){
         this.mByteBufferWebpDecoder = byteBufferWebpDecoder;
+        this.mArrayPool = arrayPool;
     }
 
+    /**
+     * Only sniff the RIFF header and the leading VP8X chunk, so the whole image never has to be
+     * buffered just to be rejected. Glide passes a stream it has already marked at the start of
+     * the data with a large read limit; the header is read and the stream reset to that mark,
+     * calling mark() here would shrink the read limit Glide's other decoders rely on.
+     */
     @Override
     public boolean handles(@NonNull InputStream source, @NonNull Options options) throws IOException {
-        byte[] data = Utils.inputStreamToBytes(source);
-        if (data == null) {
+        if (!source.markSupported()) {
+            // Reading would consume the caller's data, decode() would see a truncated source
             return false;
         }
-        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
-        return mByteBufferWebpDecoder.handles(byteBuffer,options);
+        byte[] header = mArrayPool.get(WebPParser.ANIMATED_HEADER_SIZE, byte[].class);
+        try {
+            int length = Utils.readFully(source, header, WebPParser.ANIMATED_HEADER_SIZE);
+            return WebPParser.isAnimatedWebPHeader(header, length);
+        } finally {
+            source.reset();
+            mArrayPool.put(header);
+        }
     }
 
     @Nullable
     @Override
     public Resource<WebpDrawable> decode(@NonNull InputStream inputStream, int width, int height, @NonNull Options options) throws IOException {
-        byte[] data = Utils.inputStreamToBytes(inputStream);
-        if (data == null) {
+        ByteBuffer byteBuffer = Utils.inputStreamToPooledBuffer(inputStream, mArrayPool);
+        if (byteBuffer == null) {
             return null;
         }
-        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
-
-        return mByteBufferWebpDecoder.decode(byteBuffer, width, height, options);
+        // The pooled array becomes the only copy of the data, owned by the decoder from now on
+        return mByteBufferWebpDecoder.decode(byteBuffer, width, height, options, byteBuffer.array());
     }
 }
@@ -6,16 +6,19 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.os.Build;
 import android.util.Log;
-import android.util.LruCache;
 
 import com.bumptech.glide.gifdecoder.GifDecoder;
 import com.bumptech.glide.gifdecoder.GifHeader;
-import com.moji.glide.webp.WebpFrameInfo;
+import com.bumptech.glide.util.Util;
+import com.moji.glide.webp.Utils;
 import com.moji.glide.webp.WebpImage;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 
 /**
@@ -26,25 +29,64 @@ public class WebpDecoder implements GifDecoder {
     private static final String TAG = "WebpDecoder";
     // 缓存最近的Bitmap帧用于渲染当前帧
     private static final int STANDARD_FRAME_BITMAP_CACHE_SIZE = 6;
+    /** Default budget of the adaptive cache, as a share of the budget of {@link WebpFrameCache} */
+    private static final int ADAPTIVE_BUDGET_DIVISOR = 4;
+    /** Max number of changed regions copied to rebuild a frame in delta mode */
+    private static final int MAX_DELTA_CHAIN = 8;
 
     /** Raw WebP data from input source. */
     private ByteBuffer rawData;
+    /** Array backing rawData when it was borrowed from the ArrayPool. */
+    private byte[] mPooledData;
     /** WebpImage instance */
     private WebpImage mWebPImage;
     private final GifDecoder.BitmapProvider mBitmapProvider;
     private int mFramePointer = -1;
-    private final int[] mFrameDurations;
+    // Read by the eviction policy on any thread evicting frames
+    private volatile PlaybackPosition mPlaybackPosition = new PlaybackPosition(-1, -1, 0);
+    private final int mByteSize;
     private int sampleSize;
     private int downsampledHeight;
     private int downsampledWidth;
+    /** Output size over canvas size, frame rects are mapped with it and rounded */
+    private float mScaleX = 1f;
+    private float mScaleY = 1f;
     private final Paint mTransparentFillPaint;
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mCopyPaint;
+    private final Rect mFrameRect = new Rect();
+    private final Rect mDecodedRect = new Rect();
+    private final Rect mDirtyRect = new Rect();
 
     private WebpFrameCacheStrategy mCacheStrategy;
     private WebpFramePlayStrategy mPlayStrategy;
 
     private Bitmap.Config mBitmapConfig = Bitmap.Config.ARGB_8888;
     // 动画每一帧渲染后的Bitmap缓存
-    private final LruCache<Integer, Bitmap> mFrameBitmapCache;
+    private WebpFrameCache.Frames mFrameBitmapCache;
+    private final WebpRenderContext mRenderContext;
+    private final WebpDeltaCache mDeltaCache;
+    private final Rect mDeltaRect = new Rect();
+    private WebpFrameDiskStore.FrameFile mFrameFile;
+    private WebpFrameStore mFrameStore;
+    private final int mMaxCacheSize;
+    private final long mMaxCacheBytes;
+    private boolean mCompressFrames;
+    private boolean mAllowRgb565Frames;
+    // Whether the adaptive cache was sized
+    private boolean mAdapted;
+    // Measured time to render each frame, in nanoseconds, 0 if not rendered yet
+    private long[] mRenderCosts = new long[0];
+    private long mTotalRenderCost;
+    private int mRenderCostCount;
+    private final WebpFrameCache.EvictionPolicy mPlaybackEvictionPolicy = new PlaybackEvictionPolicy();
+    /**
+     * Running canvas of the incremental composition: it holds mCompositeFrame, the next frame is
+     * composed on top of it and only a snapshot is handed out.
+     */
+    private boolean mIncrementalComposition;
+    private Bitmap mCompositeBitmap;
+    private int mCompositeFrame = -1;
 
     private int temp = 1;
 
@@ -56,7 +98,7 @@ public class WebpDecoder implements GifDecoder {
                        int sampleSize) {
         mBitmapProvider = provider;
         mWebPImage = webPImage;
-        mFrameDurations = webPImage.getFrameDurations();
+        mByteSize = webPImage.getByteSize();
         mCacheStrategy = webpFrameCacheStrategy;
         mPlayStrategy = webpFramePlayStrategy;
 
@@ -64,24 +106,45 @@ public class WebpDecoder implements GifDecoder {
         mTransparentFillPaint.setColor(Color.TRANSPARENT);
         mTransparentFillPaint.setStyle(Paint.Style.FILL);
         mTransparentFillPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        mCopyPaint = new Paint();
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
         this.mCacheStrategy = webpFrameCacheStrategy;
+        mFrameStore = new WebpFrameStore(provider);
         int maxCacheSize = 0;
+        long maxCacheBytes = Long.MAX_VALUE;
         if (mCacheStrategy.cacheAll()) {
-            maxCacheSize = webPImage.getFrameCount();
+            // The frame count may still grow while the image is being received
+            maxCacheSize = webPImage.isComplete() ? webPImage.getFrameCount() : Integer.MAX_VALUE;
         } else if(mCacheStrategy.cacheAuto()) {
             maxCacheSize = Math.min(STANDARD_FRAME_BITMAP_CACHE_SIZE,webPImage.getFrameCount());
+        } else if (mCacheStrategy.cacheBytes()) {
+            maxCacheSize = Integer.MAX_VALUE;
+            maxCacheBytes = mCacheStrategy.getCacheBytes();
+        } else if (mCacheStrategy.cacheAdaptive()) {
+            // Record the whole first loop, the cache is sized once every frame was measured
+            maxCacheSize = Integer.MAX_VALUE;
+            maxCacheBytes = mCacheStrategy.getCacheBytes() > 0 ? mCacheStrategy.getCacheBytes()
+                    : WebpFrameCache.get().getMaxBytes() / ADAPTIVE_BUDGET_DIVISOR;
+        } else if (mCacheStrategy.cacheDelta()) {
+            // Full frames aren't cached, only the deltas
+            maxCacheSize = 0;
         }else {
             maxCacheSize = Math.max(maxCacheSize, mCacheStrategy.getCacheSize());
         }
-        mFrameBitmapCache = new LruCache<Integer, Bitmap>(maxCacheSize) {
-            @Override
-            protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue, Bitmap newValue) {
-                // Return the cached frame bitmap to the provider
-                if (oldValue != null) {
-                    mBitmapProvider.release(oldValue);
-                }
-            }
-        };
+        mMaxCacheSize = maxCacheSize;
+        mMaxCacheBytes = maxCacheBytes;
+        // Frames of all the decoders share the byte budget of the global cache
+        mFrameBitmapCache = WebpFrameCache.get().createFrames(mFrameStore, maxCacheSize, maxCacheBytes);
+        mFrameBitmapCache.setShrinkOnTrim(mCacheStrategy.cacheAdaptive());
+
+        mRenderContext = new WebpRenderContext(provider);
+        if (mCacheStrategy.cacheDelta()) {
+            long deltaBytes = mCacheStrategy.getCacheBytes() > 0 ? mCacheStrategy.getCacheBytes()
+                    : WebpFrameCache.get().getMaxBytes() / ADAPTIVE_BUDGET_DIVISOR;
+            mDeltaCache = WebpFrameCache.get().createDeltaCache(provider, deltaBytes);
+        } else {
+            mDeltaCache = null;
+        }
 
         setData(new GifHeader(), rawData, sampleSize);
     }
@@ -108,21 +171,27 @@ public class WebpDecoder implements GifDecoder {
 
     @Override
     public void advance() {
+        if (!mWebPImage.isComplete() && mFramePointer >= 0 && mFramePointer == getFrameCount() - 1) {
+            // Hold the last received frame until the next one arrives
+            return;
+        }
+        int previous = mFramePointer;
         mFramePointer = mPlayStrategy.getNextFrameIndex(getFrameCount());
+        mPlaybackPosition = new PlaybackPosition(previous, mFramePointer, getFrameCount());
     }
 
     @Override
     public int getDelay(int n) {
         int delay = -1;
-        if ((n >= 0) && (n < mFrameDurations.length)) {
-            delay = mFrameDurations[n];
+        if ((n >= 0) && (n < getFrameCount())) {
+            delay = mWebPImage.getFrameDuration(n);
         }
         return delay;
     }
 
     @Override
     public int getNextDelay() {
-        if (mFrameDurations.length == 0 || mFramePointer < 0) {
+        if (getFrameCount() == 0 || mFramePointer < 0) {
             return 0;
         }
 
@@ -134,6 +203,13 @@ public class WebpDecoder implements GifDecoder {
         return mWebPImage.getFrameCount();
     }
 
+    /**
+     * @return false while the image is still being received and frames may be added
+     */
+    boolean isComplete() {
+        return mWebPImage.isComplete();
+    }
+
     @Override
     public int getCurrentFrameIndex() {
         return mFramePointer;
@@ -142,6 +218,7 @@ public class WebpDecoder implements GifDecoder {
     @Override
     public void resetFrameIndex() {
         mFramePointer = -1;
+        mPlaybackPosition = new PlaybackPosition(-1, -1, getFrameCount());
     }
 
     @Override
@@ -165,7 +242,7 @@ public class WebpDecoder implements GifDecoder {
     @Override
     public int getByteSize() {
         //todo 应该计算所有帧的大小
-        return rawData.limit();
+        return mByteSize;
     }
 
     /** @Override Added in Glide 4.4.0 */
@@ -178,32 +255,310 @@ public class WebpDecoder implements GifDecoder {
         mBitmapConfig = config;
     }
 
+    /**
+     * The returned frame holds a reference that must be dropped with {@link #releaseFrame(Bitmap)}
+     * and not by putting the bitmap back into a pool, the frame cache may share it.
+     */
     @Override
     public Bitmap getNextFrame() {
         int frameNumber = getCurrentFrameIndex();
-        // Get the target Bitmap for Canvas
-        Bitmap bitmap = mBitmapProvider.obtain(downsampledWidth, downsampledHeight, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.SRC);
 
-        if (!mCacheStrategy.noCache()) {
-            Bitmap cache = mFrameBitmapCache.get(frameNumber);
+        if (!mCacheStrategy.noCache() && mDeltaCache == null) {
+            Bitmap cache = mFrameBitmapCache.acquire(frameNumber, true);
             if (cache != null) {
-                // hit from memory cache
+                // hit from memory cache, frames are never drawn into once rendered so it's shared as is
                 if (Log.isLoggable(TAG, Log.DEBUG)) {
                     Log.d(TAG, "hit frame bitmap from memory cache, frameNumber=" + frameNumber);
                 }
-                canvas.drawBitmap(cache, 0, 0, null);
-                return bitmap;
+                return cache;
+            }
+        }
+
+        // Get the target Bitmap for Canvas
+        Bitmap bitmap = mFrameStore.obtain(downsampledWidth, downsampledHeight, Bitmap.Config.ARGB_8888);
+
+        if (mFrameFile != null && mFrameFile.read(frameNumber, bitmap)) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "read frame bitmap from disk, frameNumber=" + frameNumber);
+            }
+            cacheFrameBitmap(frameNumber, bitmap);
+            return bitmap;
+        }
+
+        if (mDeltaCache != null && mDeltaCache.rebuild(frameNumber, bitmap)) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "rebuilt frame bitmap from deltas, frameNumber=" + frameNumber);
+            }
+            return bitmap;
+        }
+
+        long startTime = System.nanoTime();
+        if (mIncrementalComposition) {
+            composeFrame(frameNumber);
+            copyBitmap(mCompositeBitmap, bitmap);
+        } else {
+            renderFrame(frameNumber, bitmap);
+        }
+        recordRenderCost(frameNumber, System.nanoTime() - startTime);
+        if (mFrameFile != null) {
+            mFrameFile.write(frameNumber, bitmap);
+        }
+        if (mCacheStrategy.cacheAdaptive() && !mAdapted) {
+            adaptCacheSize();
+        }
+
+        // Then put the rendered frame into the BitmapCache
+        cacheFrameBitmap(frameNumber, bitmap);
+
+        return bitmap;
+    }
+
+    /**
+     * Share rendered frames with every decoder of the same content rendered at the same size,
+     * whichever renders a frame first, the others reuse it. The limits of the first decoder apply
+     * to the shared frames. Must be called before the first frame and after
+     * {@link #setExactSize(int, int)}.
+     *
+     * @param contentHash hash of the whole source, see {@link Utils#hashContent}
+     */
+    void shareFrames(byte[] contentHash) {
+        // The adaptive cache is sized for this decoder alone, deltas aren't shared
+        if (mCacheStrategy.noCache() || mCacheStrategy.cacheAdaptive() || mCacheStrategy.cacheDelta()) {
+            return;
+        }
+        Object key = new SharedFramesKey(contentHash, mByteSize, sampleSize, downsampledWidth, downsampledHeight);
+        WebpFrameCache.Frames shared = WebpFrameCache.get().obtainSharedFrames(key,
+                mFrameStore, mMaxCacheSize, mMaxCacheBytes);
+        mFrameBitmapCache.clear();
+        mFrameBitmapCache = shared;
+        mFrameStore = shared.getStore();
+        // The decoders sharing the view may be at different points of the animation, it stays
+        // least recently used
+        mFrameBitmapCache.setCompression(mCompressFrames, mAllowRgb565Frames);
+    }
+
+    /**
+     * Evict the cached frame that will be played the furthest in the future according to the
+     * play strategy, weighted by how long it took to render, instead of the least recently used.
+     * Ignored if the play strategy isn't {@link PlayOrderAware}.
+     */
+    void setPlaybackOrderEviction(boolean enabled) {
+        boolean policy = enabled && mPlayStrategy instanceof PlayOrderAware;
+        mFrameBitmapCache.setEvictionPolicy(policy ? mPlaybackEvictionPolicy : null);
+    }
+
+    private synchronized void recordRenderCost(int frameNumber, long cost) {
+        if (frameNumber >= mRenderCosts.length) {
+            mRenderCosts = Arrays.copyOf(mRenderCosts, Math.max(frameNumber + 1, getFrameCount()));
+        }
+        long previous = mRenderCosts[frameNumber];
+        if (previous > 0) {
+            mTotalRenderCost -= previous;
+        } else {
+            mRenderCostCount++;
+        }
+        mRenderCosts[frameNumber] = Math.max(1, cost);
+        mTotalRenderCost += mRenderCosts[frameNumber];
+    }
+
+    /**
+     * Size the adaptive cache once every frame was rendered and measured: keep every frame if
+     * they fit in the budget, nothing is decoded anymore then, otherwise keep the frames that
+     * take longer to render than they are displayed, as many as fit.
+     */
+    private void adaptCacheSize() {
+        int frameCount = getFrameCount();
+        int slowFrameCount = 0;
+        synchronized (this) {
+            if (!mWebPImage.isComplete() || mRenderCostCount < frameCount) {
+                return;
+            }
+            for (int i = 0; i < frameCount; i++) {
+                if (mRenderCosts[i] > getDelay(i) * 1000000L) {
+                    slowFrameCount++;
+                }
+            }
+        }
+        mAdapted = true;
+        long frameBytes = Util.getBitmapByteSize(downsampledWidth, downsampledHeight, Bitmap.Config.ARGB_8888);
+        int fitCount = (int) Math.min(frameCount, mMaxCacheBytes / frameBytes);
+        boolean replay = fitCount == frameCount;
+        // Not under the lock of the decoder, the cache calls the eviction policy with its own lock held
+        mFrameBitmapCache.setMaxCount(replay ? frameCount : Math.min(fitCount, slowFrameCount));
+        if (replay) {
+            // Frames are replayed from the cache, they are only rendered again if they get trimmed
+            if (mCompositeBitmap != null) {
+                mBitmapProvider.release(mCompositeBitmap);
+                mCompositeBitmap = null;
             }
+            mRenderContext.clear();
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "adaptive cache, frames=" + frameCount + ", fit=" + fitCount
+                    + ", slow=" + slowFrameCount + ", replay=" + replay);
+        }
+    }
+
+    private synchronized long getRenderCost(int frameNumber) {
+        long cost = frameNumber < mRenderCosts.length ? mRenderCosts[frameNumber] : 0;
+        if (cost > 0) {
+            return cost;
+        }
+        // Not measured yet, assume the average
+        return mRenderCostCount == 0 ? 1 : mTotalRenderCost / mRenderCostCount;
+    }
+
+    /**
+     * Scores frames by their next use distance per nanosecond of rendering: the frame played the
+     * latest goes first, unless it's much more expensive to render again than the others.
+     */
+    private final class PlaybackEvictionPolicy implements WebpFrameCache.EvictionPolicy {
+        @Override
+        public float getEvictionScore(int frameNumber) {
+            PlaybackPosition position = mPlaybackPosition;
+            if (position.frameCount <= 0) {
+                return 0;
+            }
+            int distance = ((PlayOrderAware) mPlayStrategy).getNextUseDistance(position.previousIndex,
+                    position.currentIndex, frameNumber, position.frameCount);
+            return (float) distance / getRenderCost(frameNumber);
+        }
+    }
+
+    /**
+     * Frames played last, published together so the eviction policy sees a consistent state.
+     */
+    private static final class PlaybackPosition {
+        final int previousIndex;
+        final int currentIndex;
+        final int frameCount;
+
+        PlaybackPosition(int previousIndex, int currentIndex, int frameCount) {
+            this.previousIndex = previousIndex;
+            this.currentIndex = currentIndex;
+            this.frameCount = frameCount;
         }
+    }
+
+    /**
+     * Store the rendered frames in a file of store and read them back from it instead of
+     * rendering them, in this session and the next ones. Must be called after
+     * {@link #setExactSize(int, int)}, on a background thread.
+     *
+     * @param contentHash hash of the whole source, see {@link Utils#hashContent}
+     */
+    void storeFramesOnDisk(WebpFrameDiskStore store, byte[] contentHash) {
+        mFrameFile = store.open(contentHash, downsampledWidth, downsampledHeight, getFrameCount());
+    }
+
+    /**
+     * Keep the frames evicted from the frame cache in a compressed form, see {@link WebpFrameCache}.
+     */
+    void setFrameCompression(boolean compress, boolean allowRgb565) {
+        mCompressFrames = compress;
+        mAllowRgb565Frames = allowRgb565;
+        mFrameBitmapCache.setCompression(compress, allowRgb565);
+    }
+
+    /**
+     * Keep one running canvas across frames: when frames come in sequence, only the disposal of
+     * the previous frame and the rect of the new frame are drawn. Must be called before the first
+     * frame.
+     */
+    void setIncrementalComposition(boolean incrementalComposition) {
+        mIncrementalComposition = incrementalComposition;
+    }
 
+    private void composeFrame(int frameNumber) {
+        if (mCompositeBitmap == null) {
+            mCompositeBitmap = mBitmapProvider.obtain(downsampledWidth, downsampledHeight, Bitmap.Config.ARGB_8888);
+            mCompositeFrame = -1;
+        }
+        if (frameNumber == mCompositeFrame) {
+            return;
+        }
+        if (mCompositeFrame < 0 || frameNumber != mCompositeFrame + 1) {
+            // Out of sequence, build the frame from scratch
+            renderFrame(frameNumber, mCompositeBitmap);
+        } else if (!isFullFrameReplacement(frameNumber) || !renderFrameInPlace(frameNumber, mCompositeBitmap)) {
+            Canvas canvas = mRenderContext.canvas;
+            canvas.setBitmap(mCompositeBitmap);
+            int previousFrame = mCompositeFrame;
+            // Nothing outside the disposed rect and the new frame rect may change
+            getChangedRegion(previousFrame, frameNumber, mDirtyRect);
+            canvas.save();
+            canvas.clipRect(mDirtyRect);
+            if (mWebPImage.isDisposeBackgroundColor(previousFrame)) {
+                disposeToBackground(canvas, previousFrame);
+            }
+            if (!mWebPImage.isBlendPreviousFrame(frameNumber)) {
+                disposeToBackground(canvas, frameNumber);
+            }
+            renderFrame(frameNumber, canvas);
+            canvas.restore();
+            canvas.setBitmap(null);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "composeFrame, index=" + frameNumber + ", previous=" + previousFrame
+                        + ", dirty=" + mDirtyRect);
+            }
+        }
+        mCompositeFrame = frameNumber;
+    }
+
+    /**
+     * Region of the output that differs between two frames. When toFrame comes right after
+     * fromFrame it is the disposed rect of fromFrame and the rect of toFrame, otherwise the whole
+     * output. Only reads the frame index, it may be called from any thread.
+     *
+     * @param fromFrame frame currently shown, or -1 if there is none
+     */
+    void getChangedRegion(int fromFrame, int toFrame, Rect outRect) {
+        WebpImage webPImage = mWebPImage;
+        if (fromFrame == toFrame) {
+            outRect.setEmpty();
+        } else if (webPImage == null || fromFrame < 0 || toFrame != fromFrame + 1) {
+            outRect.set(0, 0, downsampledWidth, downsampledHeight);
+        } else {
+            mapFrameRect(toFrame, outRect);
+            if (webPImage.isDisposeBackgroundColor(fromFrame)) {
+                int x = webPImage.getFrameX(fromFrame);
+                int y = webPImage.getFrameY(fromFrame);
+                outRect.union(Math.round(x * mScaleX),
+                        Math.round(y * mScaleY),
+                        Math.round((x + webPImage.getFrameWidth(fromFrame)) * mScaleX),
+                        Math.round((y + webPImage.getFrameHeight(fromFrame)) * mScaleY));
+            }
+        }
+    }
+
+    private void copyBitmap(Bitmap src, Bitmap dst) {
+        Canvas canvas = mRenderContext.canvas;
+        canvas.setBitmap(dst);
+        canvas.drawBitmap(src, 0, 0, mCopyPaint);
+        canvas.setBitmap(null);
+    }
+
+    /**
+     * Render the frame from scratch into bitmap, starting from the nearest cached frame or key frame.
+     */
+    private void renderFrame(int frameNumber, Bitmap bitmap) {
+        if (isFullFrameReplacement(frameNumber) && renderFrameInPlace(frameNumber, bitmap)) {
+            // The decoded pixels already replace the whole canvas, nothing to clear or blend
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "renderFrame in place, index=" + frameNumber);
+            }
+            return;
+        }
+
+        Canvas canvas = mRenderContext.canvas;
+        canvas.setBitmap(bitmap);
         int nextIndex;
         // if blending is required, prepare the canvas with the nearest cached frame
-        if (!isKeyFrame(frameNumber)) {
+        if (!mWebPImage.isKeyFrame(frameNumber)) {
             // Blending is required, nextIndex points to the next index to render into the canvas
             nextIndex = prepareCanvasWithBlending(frameNumber - 1, canvas);
         } else {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.SRC);
             nextIndex = frameNumber;
         }
 
@@ -212,75 +567,178 @@ public class WebpDecoder implements GifDecoder {
         }
 
         for (int index = nextIndex; index < frameNumber; index++) {
-            WebpFrameInfo frameInfo = mWebPImage.getFrame(index);
-            if (!frameInfo.isBlendPreviousFrame()) {
-                disposeToBackground(canvas, frameInfo);
+            if (!mWebPImage.isBlendPreviousFrame(index)) {
+                disposeToBackground(canvas, index);
             }
 
             // render the previous frame
             renderFrame(index, canvas);
 
             if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "renderFrame, index=" + index + ", blend=" + frameInfo.isBlendPreviousFrame()
-                        + ", dispose=" + frameInfo.isDisposeBackgroundColor());
+                Log.d(TAG, "renderFrame, index=" + index + ", blend=" + mWebPImage.isBlendPreviousFrame(index)
+                        + ", dispose=" + mWebPImage.isDisposeBackgroundColor(index));
             }
 
-            if (frameInfo.isDisposeBackgroundColor()) {
-                disposeToBackground(canvas, frameInfo);
+            if (mWebPImage.isDisposeBackgroundColor(index)) {
+                disposeToBackground(canvas, index);
             }
         }
 
-        WebpFrameInfo frameInfo = mWebPImage.getFrame(frameNumber);
-        if (!frameInfo.isBlendPreviousFrame()) {
-            disposeToBackground(canvas, frameInfo);
+        if (!mWebPImage.isBlendPreviousFrame(frameNumber)) {
+            disposeToBackground(canvas, frameNumber);
         }
 
         // Finally, we render the current frame. We don't dispose it.
         renderFrame(frameNumber, canvas);
 
         if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "renderFrame, index=" + frameNumber + ", blend=" + frameInfo.isBlendPreviousFrame()
-                    + ", dispose=" + frameInfo.isDisposeBackgroundColor());
+            Log.d(TAG, "renderFrame, index=" + frameNumber + ", blend=" + mWebPImage.isBlendPreviousFrame(frameNumber)
+                    + ", dispose=" + mWebPImage.isDisposeBackgroundColor(frameNumber));
         }
-        // Then put the rendered frame into the BitmapCache
-        cacheFrameBitmap(frameNumber, bitmap);
-
-        return bitmap;
+        canvas.setBitmap(null);
     }
 
     private void renderFrame(int frameNumber, Canvas canvas) {
+        mapFrameRect(frameNumber, mFrameRect);
+        if (mFrameRect.isEmpty()) {
+            return;
+        }
+        // BitmapFactory decodes the frame at about its size over inSampleSize
+        int decodeWidth = ceilDiv(mWebPImage.getFrameWidth(frameNumber), sampleSize);
+        int decodeHeight = ceilDiv(mWebPImage.getFrameHeight(frameNumber), sampleSize);
 
-        WebpFrameInfo frameInfo = mWebPImage.getFrame(frameNumber);
+        try {
+            Bitmap frameBitmap = null;
+            if (sampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // Before KitKat a bitmap can't be reused with inSampleSize > 1
+                frameBitmap = mRenderContext.obtainFrameBitmap(decodeWidth, decodeHeight,
+                        ceilDiv(mWebPImage.getMaxFrameWidth(), sampleSize),
+                        ceilDiv(mWebPImage.getMaxFrameHeight(), sampleSize),
+                        mBitmapConfig);
+            }
+            mRenderContext.options.inSampleSize = sampleSize;
+            Bitmap decoded = mWebPImage.renderFrame(decodeWidth, decodeHeight, frameNumber, frameBitmap,
+                    mRenderContext.options);
+            if (decoded != null) {
+                if (decoded.getWidth() == mFrameRect.width() && decoded.getHeight() == mFrameRect.height()) {
+                    canvas.drawBitmap(decoded, mFrameRect.left, mFrameRect.top, null);
+                } else {
+                    mDecodedRect.set(0, 0, decoded.getWidth(), decoded.getHeight());
+                    canvas.drawBitmap(decoded, mDecodedRect, mFrameRect, mScalePaint);
+                }
+                if (decoded != frameBitmap) {
+                    decoded.recycle();
+                }
+            }
+            if (frameBitmap != null) {
+                mRenderContext.releaseFrameBitmap(frameBitmap);
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Rendering of frame failed. Frame number: " + frameNumber);
+        }
+    }
 
-        int targetWidth = frameInfo.getFrameWidth() / sampleSize;
-        int targetHeight = frameInfo.getFrameHeight() / sampleSize;
-        int xOffset = frameInfo.getFrameX() / sampleSize;
-        int yOffset = frameInfo.getFrameY() / sampleSize;
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
 
-        try {
-            Bitmap frameBitmap = mBitmapProvider.obtain(targetWidth, targetHeight, mBitmapConfig);
-            frameBitmap.eraseColor(Color.TRANSPARENT);
+    /**
+     * Map the frame rect from the canvas to the output, edges are rounded so that frames sharing
+     * an edge on the canvas still share it on the output.
+     */
+    private void mapFrameRect(int index, Rect outRect) {
+        int x = mWebPImage.getFrameX(index);
+        int y = mWebPImage.getFrameY(index);
+        outRect.set(Math.round(x * mScaleX),
+                Math.round(y * mScaleY),
+                Math.round((x + mWebPImage.getFrameWidth(index)) * mScaleX),
+                Math.round((y + mWebPImage.getFrameHeight(index)) * mScaleY));
+    }
 
-            mWebPImage.renderFrame(targetWidth,targetHeight,frameInfo,frameBitmap);
-            canvas.drawBitmap(frameBitmap,xOffset,yOffset,null);
-            mBitmapProvider.release(frameBitmap);
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "Rendering of frame failed. Frame number: " + frameNumber);
+    /**
+     * @return true if the frame covers the whole canvas without blending, once decoded at the
+     * size of the output it is the output
+     */
+    private boolean isFullFrameReplacement(int frameNumber) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // The output can't be given back its size if BitmapFactory reconfigures it
+            return false;
         }
+        // The canvas sampled down must be exactly the output, with no scaling nor rounding
+        boolean exactSample = downsampledWidth * sampleSize == getWidth()
+                && downsampledHeight * sampleSize == getHeight();
+        return exactSample
+                && mWebPImage.isFullFrame(frameNumber)
+                && !mWebPImage.isBlendPreviousFrame(frameNumber);
     }
 
-    private void cacheFrameBitmap(int frameNumber, Bitmap bitmap) {
-        // Release the old cached bitmap
-        mFrameBitmapCache.remove(frameNumber);
+    /**
+     * Decode the frame straight into the output bitmap.
+     *
+     * @return false if the output bitmap couldn't be used as the decode target
+     */
+    private boolean renderFrameInPlace(int frameNumber, Bitmap bitmap) {
+        try {
+            mRenderContext.options.inSampleSize = sampleSize;
+            Bitmap decoded = mWebPImage.renderFrame(downsampledWidth, downsampledHeight, frameNumber, bitmap,
+                    mRenderContext.options);
+            if (decoded != bitmap) {
+                return false;
+            }
+            if (bitmap.getWidth() != downsampledWidth || bitmap.getHeight() != downsampledHeight) {
+                // BitmapFactory reconfigured the output to a different size, give it back its size
+                bitmap.reconfigure(downsampledWidth, downsampledHeight, Bitmap.Config.ARGB_8888);
+                return false;
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            mRenderContext.options.inBitmap = null;
+            // Decoding an opaque frame through inBitmap clears hasAlpha, the frames composed on
+            // top of it later would be drawn opaque and disposed areas would come out black
+            if (!bitmap.isRecycled()) {
+                bitmap.setHasAlpha(true);
+            }
+        }
+    }
 
-        // Create a new copy and put it into the cache
-        Bitmap cache = mBitmapProvider.obtain(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
-        cache.eraseColor(Color.TRANSPARENT);
+    private void cacheFrameBitmap(int frameNumber, Bitmap bitmap) {
+        if (mCacheStrategy.noCache()) {
+            return;
+        }
+        if (mDeltaCache != null) {
+            cacheFrameDelta(frameNumber, bitmap);
+            return;
+        }
+        // The cache shares the rendered frame with the display
+        mFrameStore.acquire(bitmap);
+        mFrameBitmapCache.put(frameNumber, bitmap);
+    }
 
-        Canvas canvas = new Canvas(cache);
-        canvas.drawBitmap(bitmap, 0, 0, null);
+    /**
+     * Keep a full canvas at key frames, and every {@link #MAX_DELTA_CHAIN} frames after them so
+     * rebuilding stays cheap, and only the changed region otherwise.
+     */
+    private void cacheFrameDelta(int frameNumber, Bitmap bitmap) {
+        int keyFrame = mWebPImage.getNearestKeyFrame(frameNumber);
+        boolean full = frameNumber == keyFrame || (frameNumber - keyFrame) % MAX_DELTA_CHAIN == 0;
+        if (!full) {
+            getChangedRegion(frameNumber - 1, frameNumber, mDeltaRect);
+            // A pixel of margin for the filtering of scaled frames
+            mDeltaRect.inset(-1, -1);
+            full = mDeltaRect.left <= 0 && mDeltaRect.top <= 0
+                    && mDeltaRect.right >= downsampledWidth && mDeltaRect.bottom >= downsampledHeight;
+        }
+        mDeltaCache.put(frameNumber, bitmap, mDeltaRect, full);
+    }
 
-        mFrameBitmapCache.put(frameNumber, cache);
+    /**
+     * Drop a reference taken by {@link #getNextFrame()}, the bitmap goes back to the pool once
+     * the frame cache doesn't hold it anymore. May be called after {@link #clear()}.
+     */
+    void releaseFrame(Bitmap bitmap) {
+        mFrameStore.release(bitmap);
     }
 
     @Override
@@ -290,10 +748,31 @@ public class WebpDecoder implements GifDecoder {
 
     @Override
     public void clear() {
+        // Leaving the view also drops the eviction policy of this decoder
+        mFrameBitmapCache.clear();
+        if (mDeltaCache != null) {
+            mDeltaCache.clear();
+        }
+        mFrameFile = null;
         mWebPImage.dispose();
         mWebPImage = null;
-        mFrameBitmapCache.evictAll();
+        mRenderContext.clear();
+        if (mCompositeBitmap != null) {
+            mBitmapProvider.release(mCompositeBitmap);
+            mCompositeBitmap = null;
+        }
         rawData = null;
+        if (mPooledData != null) {
+            mBitmapProvider.release(mPooledData);
+            mPooledData = null;
+        }
+    }
+
+    /**
+     * Hand over the pooled array backing the raw data, it goes back to the pool in {@link #clear()}.
+     */
+    void setPooledData(byte[] pooledData) {
+        mPooledData = pooledData;
     }
 
     @Override
@@ -321,6 +800,27 @@ public class WebpDecoder implements GifDecoder {
         this.sampleSize = sampleSize;
         downsampledWidth = mWebPImage.getWidth() / sampleSize;
         downsampledHeight = mWebPImage.getHeight() / sampleSize;
+        updateScale();
+    }
+
+    /**
+     * Render frames at the size that fits the canvas into targetWidth x targetHeight instead of
+     * a power of two step, frames are decoded with the largest inSampleSize above that size and
+     * scaled down while being drawn. Must be called before the first frame.
+     */
+    void setExactSize(int targetWidth, int targetHeight) {
+        int width = mWebPImage.getWidth();
+        int height = mWebPImage.getHeight();
+        float scale = Math.min(1f, Math.min((float) targetWidth / width, (float) targetHeight / height));
+        downsampledWidth = Math.max(1, Math.round(width * scale));
+        downsampledHeight = Math.max(1, Math.round(height * scale));
+        sampleSize = Math.max(1, Integer.highestOneBit((int) (1 / scale)));
+        updateScale();
+    }
+
+    private void updateScale() {
+        mScaleX = (float) downsampledWidth / mWebPImage.getWidth();
+        mScaleY = (float) downsampledHeight / mWebPImage.getHeight();
     }
 
     @Override
@@ -329,27 +829,28 @@ public class WebpDecoder implements GifDecoder {
     }
 
 
+    /**
+     * Fill the canvas with the nearest cached frame, copied over the whole canvas so it doesn't
+     * need to be cleared first, or clear it to start from the key frame.
+     *
+     * @return the next frame to render into the canvas
+     */
     private int prepareCanvasWithBlending(int previousFrameNumber, Canvas canvas) {
-        for (int index = previousFrameNumber; index >= 0; index--) {
-            WebpFrameInfo frameInfo = mWebPImage.getFrame(index);
-            if (!frameInfo.isDisposeBackgroundColor() || !isFullFrame(frameInfo)) {
-                // need to draw this frame
-                Bitmap bitmap = mFrameBitmapCache.get(index);
-                if (bitmap != null && !bitmap.isRecycled()) {
-
-                    canvas.drawBitmap(bitmap, 0, 0, null);
-                    if (frameInfo.isDisposeBackgroundColor()) {
-                        disposeToBackground(canvas, frameInfo);
-                    }
-                    return index + 1;
-                } else if (isKeyFrame(index)) {
-                    return index;
-                } /* else keep going */
-            } else {
+        int keyFrame = mWebPImage.getNearestKeyFrame(previousFrameNumber);
+        // A cached frame since the key frame saves rendering the frames up to it
+        for (int index = previousFrameNumber; index >= keyFrame; index--) {
+            Bitmap bitmap = mFrameBitmapCache.acquire(index, false);
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, 0, 0, mCopyPaint);
+                mFrameStore.release(bitmap);
+                if (mWebPImage.isDisposeBackgroundColor(index)) {
+                    disposeToBackground(canvas, index);
+                }
                 return index + 1;
             }
         }
-        return 0;
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.SRC);
+        return keyFrame;
     }
 
 
@@ -357,48 +858,46 @@ public class WebpDecoder implements GifDecoder {
      * 使用透明色填充帧的显示区域
      *
      * @param canvas
-     * @param frameInfo
+     * @param index
      */
-    private void disposeToBackground(Canvas canvas, WebpFrameInfo frameInfo) {
-        final float left = frameInfo.getFrameX() / sampleSize;
-        final float top = frameInfo.getFrameY() / sampleSize;
-        final float right = (frameInfo.getFrameX() + frameInfo.getFrameWidth()) / sampleSize;
-        final float bottom = (frameInfo.getFrameY() + frameInfo.getFrameHeight()) / sampleSize;
-        canvas.drawRect(left, top, right, bottom, mTransparentFillPaint);
+    private void disposeToBackground(Canvas canvas, int index) {
+        mapFrameRect(index, mFrameRect);
+        canvas.drawRect(mFrameRect, mTransparentFillPaint);
     }
 
-    /**
-     * 当前帧是否是关键帧
-     *
-     * @param index
-     * @return
-     */
-    private boolean isKeyFrame(int index) {
-        if (index == 0) {
-            // first Frame
-            return true;
+    private static final class SharedFramesKey {
+        private final byte[] contentHash;
+        private final int byteSize;
+        private final int sampleSize;
+        private final int width;
+        private final int height;
+
+        SharedFramesKey(byte[] contentHash, int byteSize, int sampleSize, int width, int height) {
+            this.contentHash = contentHash;
+            this.byteSize = byteSize;
+            this.sampleSize = sampleSize;
+            this.width = width;
+            this.height = height;
         }
 
-        WebpFrameInfo curFrameInfo = mWebPImage.getFrame(index);
-        WebpFrameInfo prevFrameInfo = mWebPImage.getFrame(index-1);
-        if (!curFrameInfo.isBlendPreviousFrame() && isFullFrame(curFrameInfo)) {
-            return true;
-        } else {
-            return prevFrameInfo.isDisposeBackgroundColor() && isFullFrame(prevFrameInfo);
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SharedFramesKey)) {
+                return false;
+            }
+            SharedFramesKey other = (SharedFramesKey) o;
+            return Arrays.equals(contentHash, other.contentHash) && byteSize == other.byteSize
+                    && sampleSize == other.sampleSize && width == other.width && height == other.height;
         }
-    }
 
-    /**
-     * 当前帧是否充满画布
-     *
-     * @param frameInfo
-     * @return
-     */
-    private boolean isFullFrame(WebpFrameInfo frameInfo) {
-        return frameInfo.getFrameX() == 0 &&
-                frameInfo.getFrameY() == 0 &&
-                frameInfo.getFrameWidth() == mWebPImage.getWidth() &&
-                frameInfo.getFrameHeight() == mWebPImage.getHeight();
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(contentHash);
+            result = 31 * result + byteSize;
+            result = 31 * result + sampleSize;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            return result;
+        }
     }
-
 }
@@ -0,0 +1,168 @@
+package com.moji.glide.webp.glide;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import com.bumptech.glide.gifdecoder.GifDecoder;
+import com.bumptech.glide.util.Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Frames of one decoder stored as full canvases at key frames and, for the frames after them,
+ * only the composited pixels of the region that changed since the previous frame. A frame is
+ * rebuilt by copying the nearest full canvas and then each region up to it, as long as none is
+ * missing.
+ * <p>
+ * Past the budget, the least recently used entry is evicted along with the regions that follow
+ * it, they can't be rebuilt without it. Bytes are reserved in {@link WebpFrameCache}, which
+ * releases every entry when it is trimmed.
+ */
+final class WebpDeltaCache {
+    private final GifDecoder.BitmapProvider mBitmapProvider;
+    private final long mMaxBytes;
+    private final LinkedHashMap<Integer, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mCopyPaint = new Paint();
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+    private long mBytes;
+
+    /**
+     * Created by {@link WebpFrameCache#createDeltaCache}, which trims it.
+     */
+    WebpDeltaCache(GifDecoder.BitmapProvider bitmapProvider, long maxBytes) {
+        mBitmapProvider = bitmapProvider;
+        mMaxBytes = maxBytes;
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * Rebuild a frame into bitmap, whose content is overwritten.
+     *
+     * @return false if the frame or one it depends on isn't stored, bitmap is left undefined
+     */
+    synchronized boolean rebuild(int frameNumber, Bitmap bitmap) {
+        int first = frameNumber;
+        while (true) {
+            Entry entry = mEntries.get(first);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.full) {
+                break;
+            }
+            first--;
+        }
+        mCanvas.setBitmap(bitmap);
+        for (int i = first; i <= frameNumber; i++) {
+            Entry entry = mEntries.get(i);
+            mSrcRect.set(0, 0, entry.pixels.getWidth(), entry.pixels.getHeight());
+            mDstRect.set(entry.left, entry.top, entry.left + mSrcRect.width(), entry.top + mSrcRect.height());
+            mCanvas.drawBitmap(entry.pixels, mSrcRect, mDstRect, mCopyPaint);
+        }
+        mCanvas.setBitmap(null);
+        return true;
+    }
+
+    /**
+     * Store the region of a rendered frame, or the whole frame if full.
+     *
+     * @param region part of the frame that differs from the previous frame, ignored if full
+     */
+    synchronized void put(int frameNumber, Bitmap frame, Rect region, boolean full) {
+        if (mEntries.containsKey(frameNumber)) {
+            return;
+        }
+        if (full) {
+            mSrcRect.set(0, 0, frame.getWidth(), frame.getHeight());
+        } else {
+            mSrcRect.set(region);
+            if (!mSrcRect.intersect(0, 0, frame.getWidth(), frame.getHeight())) {
+                // Nothing changed, keep an empty region
+                mSrcRect.set(0, 0, 1, 1);
+            }
+        }
+        int byteSize = Util.getBitmapByteSize(mSrcRect.width(), mSrcRect.height(), Bitmap.Config.ARGB_8888);
+        if (byteSize > mMaxBytes) {
+            return;
+        }
+        while (mBytes + byteSize > mMaxBytes && evictEldest()) {
+            // keep going
+        }
+        if (!WebpFrameCache.get().reserveBytes(byteSize)) {
+            return;
+        }
+        Bitmap pixels = mBitmapProvider.obtain(mSrcRect.width(), mSrcRect.height(), Bitmap.Config.ARGB_8888);
+        mDstRect.set(0, 0, mSrcRect.width(), mSrcRect.height());
+        mCanvas.setBitmap(pixels);
+        mCanvas.drawBitmap(frame, mSrcRect, mDstRect, mCopyPaint);
+        mCanvas.setBitmap(null);
+        mEntries.put(frameNumber, new Entry(pixels, mSrcRect.left, mSrcRect.top, full, byteSize));
+        mBytes += byteSize;
+    }
+
+    /**
+     * Release every entry, frames are stored again as they are rendered.
+     */
+    synchronized void trim() {
+        for (Entry entry : mEntries.values()) {
+            onRemoved(entry);
+        }
+        mEntries.clear();
+    }
+
+    /**
+     * Release every entry and leave {@link WebpFrameCache}, nothing can be put afterwards.
+     */
+    synchronized void clear() {
+        trim();
+        WebpFrameCache.get().removeDeltaCache(this);
+    }
+
+    /**
+     * Evict the least recently used entry, and the regions after it that were drawn over it.
+     */
+    private boolean evictEldest() {
+        Iterator<Integer> iterator = mEntries.keySet().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        int frameNumber = iterator.next();
+        onRemoved(mEntries.remove(frameNumber));
+        while (true) {
+            Entry next = mEntries.get(++frameNumber);
+            if (next == null || next.full) {
+                return true;
+            }
+            onRemoved(mEntries.remove(frameNumber));
+        }
+    }
+
+    private void onRemoved(Entry entry) {
+        mBitmapProvider.release(entry.pixels);
+        WebpFrameCache.get().releaseBytes(entry.byteSize);
+        mBytes -= entry.byteSize;
+    }
+
+    private static final class Entry {
+        final Bitmap pixels;
+        final int left;
+        final int top;
+        final boolean full;
+        final int byteSize;
+
+        Entry(Bitmap pixels, int left, int top, boolean full, int byteSize) {
+            this.pixels = pixels;
+            this.left = left;
+            this.top = top;
+            this.full = full;
+            this.byteSize = byteSize;
+        }
+    }
+}
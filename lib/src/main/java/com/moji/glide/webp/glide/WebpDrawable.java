@@ -69,6 +69,9 @@ public class WebpDrawable extends Drawable
     private boolean applyGravity;
     private Paint paint;
     private Rect destRect;
+    /** Bounds reported by {@link #getDirtyBounds()} while a frame invalidates part of the drawable */
+    private Rect dirtyBounds;
+    private boolean useDirtyBounds;
 
     /** Callbacks to notify loop completion of a gif, where the loop count is explicitly specified. */
     private List<AnimationCallback> animationCallbacks;
@@ -191,7 +194,7 @@ public class WebpDrawable extends Drawable
                 "You cannot start a recycled Drawable. Ensure that"
                         + "you clear any references to the Drawable when clearing the corresponding request.");
         // If we have only a single frame, we don't want to decode it endlessly.
-        if (state.frameLoader.getFrameCount() == 1) {
+        if (state.frameLoader.getFrameCount() == 1 && state.frameLoader.isLoadComplete()) {
             invalidateSelf();
         } else if (!isRunning) {
             isRunning = true;
@@ -309,9 +312,10 @@ public class WebpDrawable extends Drawable
             return;
         }
 
-        invalidateSelf();
+        invalidateChangedRegion();
 
-        if (getFrameIndex() == getFrameCount() - 1) {
+        // Frames still being received don't complete a loop
+        if (getFrameIndex() == getFrameCount() - 1 && state.frameLoader.isLoadComplete()) {
             loopCount++;
         }
 
@@ -321,6 +325,46 @@ public class WebpDrawable extends Drawable
         }
     }
 
+    /**
+     * Invalidate only the part of the drawable covered by the region that changed with the new
+     * frame, views read it back through {@link #getDirtyBounds()}.
+     */
+    private void invalidateChangedRegion() {
+        Rect changed = state.frameLoader.getChangedRegion();
+        if (changed.isEmpty()) {
+            return;
+        }
+        int frameWidth = state.frameLoader.getWidth();
+        int frameHeight = state.frameLoader.getHeight();
+        if (applyGravity || frameWidth <= 0 || frameHeight <= 0
+                || changed.width() >= frameWidth && changed.height() >= frameHeight) {
+            invalidateSelf();
+            return;
+        }
+        Rect dest = getDestRect();
+        if (dirtyBounds == null) {
+            dirtyBounds = new Rect();
+        }
+        // Round outwards and keep a pixel of margin for the filtering of the scaled bitmap
+        dirtyBounds.set(
+                dest.left + (int) ((long) changed.left * dest.width() / frameWidth) - 1,
+                dest.top + (int) ((long) changed.top * dest.height() / frameHeight) - 1,
+                dest.left + (int) (((long) changed.right * dest.width() + frameWidth - 1) / frameWidth) + 1,
+                dest.top + (int) (((long) changed.bottom * dest.height() + frameHeight - 1) / frameHeight) + 1);
+        if (!dirtyBounds.intersect(dest)) {
+            return;
+        }
+        useDirtyBounds = true;
+        invalidateSelf();
+        useDirtyBounds = false;
+    }
+
+    @NonNull
+    @Override
+    public Rect getDirtyBounds() {
+        return useDirtyBounds ? dirtyBounds : super.getDirtyBounds();
+    }
+
     private void notifyAnimationEndToListeners() {
         if (animationCallbacks != null) {
             for (int i = 0, size = animationCallbacks.size(); i < size; i++) {
@@ -0,0 +1,34 @@
+package com.moji.glide.webp.glide;
+
+import android.content.res.AssetFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Region of a local file that may hold an animated WebP: a whole file, or an asset stored
+ * uncompressed in the apk. Opened by {@link WebpFileRegionLoader} and mapped by
+ * {@link WebpFileRegionDecoder}.
+ * <p>
+ * A type of its own rather than an {@link AssetFileDescriptor}: Glide hands descriptors to its
+ * video decoder as well, which would then be tried on every image loaded through these loaders.
+ */
+public final class WebpFileRegion implements Closeable {
+    private final AssetFileDescriptor mDescriptor;
+
+    WebpFileRegion(@NonNull AssetFileDescriptor descriptor) {
+        mDescriptor = descriptor;
+    }
+
+    @NonNull
+    public AssetFileDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDescriptor.close();
+    }
+}
@@ -0,0 +1,49 @@
+package com.moji.glide.webp.glide;
+
+import android.content.res.AssetFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Map the animated WebP of a {@link WebpFileRegion}, see {@link MappedWebpDecoder}.
+ * The descriptor belongs to the fetcher, so the channel is never closed here.
+ */
+public class WebpFileRegionDecoder extends MappedWebpDecoder<WebpFileRegion> {
+
+    public WebpFileRegionDecoder(ByteBufferWebpDecoder byteBufferWebpDecoder) {
+        super(byteBufferWebpDecoder);
+    }
+
+    @Override
+    FileChannel openChannel(@NonNull WebpFileRegion source) {
+        return new FileInputStream(source.getDescriptor().getFileDescriptor()).getChannel();
+    }
+
+    @Override
+    void closeChannel(@NonNull WebpFileRegion source, FileChannel channel) {
+    }
+
+    @Override
+    FileChannel openPagedChannel(@NonNull WebpFileRegion source) throws IOException {
+        return openDuplicateChannel(source.getDescriptor().getParcelFileDescriptor());
+    }
+
+    @Override
+    long getStartOffset(@NonNull WebpFileRegion source) {
+        return source.getDescriptor().getStartOffset();
+    }
+
+    @Override
+    long getLength(@NonNull WebpFileRegion source, FileChannel channel) throws IOException {
+        AssetFileDescriptor descriptor = source.getDescriptor();
+        long length = descriptor.getLength();
+        if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+            length = channel.size() - descriptor.getStartOffset();
+        }
+        return length;
+    }
+}
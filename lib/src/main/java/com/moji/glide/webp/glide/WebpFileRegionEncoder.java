@@ -0,0 +1,64 @@
+package com.moji.glide.webp.glide;
+
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.Encoder;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copy a {@link WebpFileRegion} into Glide's disk cache, needed when the request caches its
+ * source data, e.g. with {@link com.bumptech.glide.load.engine.DiskCacheStrategy#DATA}.
+ */
+public class WebpFileRegionEncoder implements Encoder<WebpFileRegion> {
+    private static final String TAG = "WebpFileRegionEncoder";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ArrayPool mArrayPool;
+
+    public WebpFileRegionEncoder(ArrayPool arrayPool) {
+        mArrayPool = arrayPool;
+    }
+
+    @Override
+    public boolean encode(@NonNull WebpFileRegion data, @NonNull File file, @NonNull Options options) {
+        AssetFileDescriptor descriptor = data.getDescriptor();
+        // Not closed, that would close the descriptor of the fetcher
+        FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+        byte[] buffer = mArrayPool.get(BUFFER_SIZE, byte[].class);
+        try (OutputStream os = new FileOutputStream(file)) {
+            long position = descriptor.getStartOffset();
+            long end = descriptor.getLength() == AssetFileDescriptor.UNKNOWN_LENGTH
+                    ? channel.size() : position + descriptor.getLength();
+            while (position < end) {
+                ByteBuffer dst = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+                // Positional reads, the offset of the descriptor is left untouched
+                int read = channel.read(dst, position);
+                if (read == -1) {
+                    break;
+                }
+                os.write(buffer, 0, read);
+                position += read;
+            }
+            return true;
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Failed to encode data onto the OutputStream", e);
+            }
+            return false;
+        } finally {
+            mArrayPool.put(buffer);
+        }
+    }
+}
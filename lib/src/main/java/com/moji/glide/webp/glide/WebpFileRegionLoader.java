@@ -0,0 +1,200 @@
+package com.moji.glide.webp.glide;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.load.model.StringLoader;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Open asset, content, resource and file Uris as a {@link WebpFileRegion}, so that local
+ * animations are mapped, or paged if they are very big, by {@link WebpFileRegionDecoder} instead
+ * of being read into the heap through Glide's stream loaders, or mapped whole through Glide's
+ * file loader.
+ * <p>
+ * Registered ahead of Glide's loaders, Glide starts the first loader whose data can be decoded
+ * to the requested resource. When the region isn't an animated WebP, or can't be opened as a
+ * descriptor, e.g. a compressed asset, Glide falls back to the next loader.
+ */
+public final class WebpFileRegionLoader implements ModelLoader<Uri, WebpFileRegion> {
+    private static final String ASSET_PATH_SEGMENT = "android_asset";
+    private static final String ASSET_PREFIX = "/" + ASSET_PATH_SEGMENT + "/";
+
+    private final Context mContext;
+
+    WebpFileRegionLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Nullable
+    @Override
+    public LoadData<WebpFileRegion> buildLoadData(@NonNull Uri uri, int width, int height, @NonNull Options options) {
+        return new LoadData<>(new ObjectKey(uri), new Fetcher(mContext, uri));
+    }
+
+    @Override
+    public boolean handles(@NonNull Uri uri) {
+        String scheme = uri.getScheme();
+        return ContentResolver.SCHEME_FILE.equals(scheme)
+                || ContentResolver.SCHEME_CONTENT.equals(scheme)
+                || ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme);
+    }
+
+    private static boolean isAsset(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && segments.size() > 1
+                && ASSET_PATH_SEGMENT.equals(segments.get(0));
+    }
+
+    private static final class Fetcher implements DataFetcher<WebpFileRegion> {
+        private final Context context;
+        private final Uri uri;
+        private WebpFileRegion region;
+
+        Fetcher(Context context, Uri uri) {
+            this.context = context;
+            this.uri = uri;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super WebpFileRegion> callback) {
+            try {
+                region = new WebpFileRegion(open());
+            } catch (IOException e) {
+                callback.onLoadFailed(e);
+                return;
+            }
+            callback.onDataReady(region);
+        }
+
+        private AssetFileDescriptor open() throws IOException {
+            if (isAsset(uri)) {
+                // Throws for compressed assets, they can only be streamed
+                return context.getAssets().openFd(uri.getPath().substring(ASSET_PREFIX.length()));
+            }
+            if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+                ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(new File(uri.getPath()),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+                return new AssetFileDescriptor(descriptor, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+            }
+            AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                throw new FileNotFoundException("No descriptor for " + uri);
+            }
+            return descriptor;
+        }
+
+        @Override
+        public void cleanup() {
+            if (region != null) {
+                try {
+                    region.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                region = null;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            // Opening a descriptor can't be cancelled
+        }
+
+        @NonNull
+        @Override
+        public Class<WebpFileRegion> getDataClass() {
+            return WebpFileRegion.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.LOCAL;
+        }
+    }
+
+    public static final class Factory implements ModelLoaderFactory<Uri, WebpFileRegion> {
+        private final Context mContext;
+
+        public Factory(@NonNull Context context) {
+            mContext = context;
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<Uri, WebpFileRegion> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new WebpFileRegionLoader(mContext);
+        }
+
+        @Override
+        public void teardown() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Files are opened by the Uri loaders.
+     */
+    public static final class FileFactory implements ModelLoaderFactory<File, WebpFileRegion> {
+
+        @NonNull
+        @Override
+        public ModelLoader<File, WebpFileRegion> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            final ModelLoader<Uri, WebpFileRegion> uriLoader = multiFactory.build(Uri.class, WebpFileRegion.class);
+            return new ModelLoader<File, WebpFileRegion>() {
+                @Nullable
+                @Override
+                public LoadData<WebpFileRegion> buildLoadData(@NonNull File file, int width, int height,
+                                                              @NonNull Options options) {
+                    return uriLoader.buildLoadData(Uri.fromFile(file), width, height, options);
+                }
+
+                @Override
+                public boolean handles(@NonNull File file) {
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public void teardown() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Strings are parsed as Uris, or as file paths, and then opened by the Uri loaders.
+     */
+    public static final class StringFactory implements ModelLoaderFactory<String, WebpFileRegion> {
+
+        @NonNull
+        @Override
+        public ModelLoader<String, WebpFileRegion> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new StringLoader<>(multiFactory.build(Uri.class, WebpFileRegion.class));
+        }
+
+        @Override
+        public void teardown() {
+            // nothing to do
+        }
+    }
+}
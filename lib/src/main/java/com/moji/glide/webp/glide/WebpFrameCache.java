@@ -0,0 +1,811 @@
+package com.moji.glide.webp.glide;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.gifdecoder.GifDecoder;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.util.Util;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rendered frames of every {@link WebpDecoder} in the process, kept within one byte budget.
+ * <p>
+ * Each decoder owns a {@link Frames} view with its own limits from {@link WebpFrameCacheStrategy}.
+ * When the budget is exceeded, the least recently used frame of the view holding the most bytes
+ * is evicted, so a few large animations can't push out the frames of all the others.
+ * <p>
+ * Decoders of the same content rendered at the same size can share one view with
+ * {@link #obtainSharedFrames}, a frame rendered by one of them is reused by all the others.
+ * <p>
+ * Views with compression enabled keep their evicted frames in a second, compressed tier with
+ * its own budget: run-length encoded pixels, or an RGB_565 copy for opaque frames. Restoring a
+ * frame is a single pass over its pixels, much cheaper than rendering it again from the last
+ * key frame. Frames are compressed and restored without holding the lock of the cache.
+ * <p>
+ * A view used by one decoder can be given an {@link EvictionPolicy}, it then evicts the frame
+ * the policy scores highest instead of the least recently used one.
+ * <p>
+ * Once {@link #init(Context)} was called, the cache trims itself like Glide's memory cache when
+ * the system is low on memory, and views that shrink on trim lower their limits.
+ */
+public final class WebpFrameCache implements ComponentCallbacks2 {
+    /** Share of Glide's memory cache size given to animation frames by {@link #init(Context)} */
+    private static final int MEMORY_CACHE_DIVISOR = 2;
+    /** Share of the heap used when {@link #init(Context)} wasn't called */
+    private static final int DEFAULT_HEAP_DIVISOR = 8;
+    /** Budget of the compressed tier, as a share of the budget of the bitmaps */
+    private static final int COMPRESSED_DIVISOR = 4;
+    /** Pixels are run-length encoded only when it at least halves their size */
+    private static final int MIN_COMPRESSION_RATIO = 2;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private static volatile WebpFrameCache sInstance;
+
+    private final long mMaxBytes;
+    private final long mMaxCompressedBytes;
+    private long mBytes;
+    private long mCompressedBytes;
+    private final List<Frames> mFrames = new ArrayList<>();
+    private final Map<Object, Frames> mSharedFrames = new HashMap<>();
+    private final List<WebpDeltaCache> mDeltaCaches = new ArrayList<>();
+    // Evicted frames waiting to be compressed once the lock is released
+    private final List<PendingCompression> mPendingCompressions = new ArrayList<>();
+    // Scratch of the compressed tier, guarded by its own lock so frames are compressed and
+    // restored without holding the lock of the cache
+    private final Object mScratchLock = new Object();
+    private int[] mPixels;
+    private Canvas mCanvas;
+    private long mHitCount;
+    private long mCompressedHitCount;
+    private long mMissCount;
+
+    private WebpFrameCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mMaxCompressedBytes = maxBytes / COMPRESSED_DIVISOR;
+    }
+
+    /**
+     * Size the cache from Glide's {@link MemorySizeCalculator}, only the first call has an effect.
+     */
+    public static void init(@NonNull Context context) {
+        if (sInstance == null) {
+            synchronized (WebpFrameCache.class) {
+                if (sInstance == null) {
+                    MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context).build();
+                    WebpFrameCache cache = new WebpFrameCache(calculator.getMemoryCacheSize() / MEMORY_CACHE_DIVISOR);
+                    context.getApplicationContext().registerComponentCallbacks(cache);
+                    sInstance = cache;
+                }
+            }
+        }
+    }
+
+    @NonNull
+    public static WebpFrameCache get() {
+        if (sInstance == null) {
+            synchronized (WebpFrameCache.class) {
+                if (sInstance == null) {
+                    sInstance = new WebpFrameCache(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_DIVISOR);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mBytes;
+    }
+
+    public long getMaxCompressedBytes() {
+        return mMaxCompressedBytes;
+    }
+
+    public synchronized long getCurrentCompressedBytes() {
+        return mCompressedBytes;
+    }
+
+    /**
+     * @return the hit counts of each tier since the process started
+     */
+    @NonNull
+    public synchronized Stats getStats() {
+        return new Stats(mHitCount, mCompressedHitCount, mMissCount);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // Cleared in the background like Glide's memory cache, only halved while the UI is
+        // hidden or the system runs low, the animations are likely to be shown again
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // nothing to do
+    }
+
+    /**
+     * Drop the compressed tier, its scratch and the delta caches, evict bitmaps down to maxBytes,
+     * views that shrink on trim then keep their limit at what they hold, or half of it if they
+     * were emptied.
+     */
+    public void trimToSize(long maxBytes) {
+        WebpDeltaCache[] deltaCaches;
+        synchronized (this) {
+            deltaCaches = mDeltaCaches.toArray(new WebpDeltaCache[mDeltaCaches.size()]);
+            trimFramesToSize(maxBytes);
+        }
+        // Without the lock, a delta cache holds its own lock while reserving bytes
+        for (WebpDeltaCache deltaCache : deltaCaches) {
+            deltaCache.trim();
+        }
+    }
+
+    private void trimFramesToSize(long maxBytes) {
+        for (int i = 0, size = mPendingCompressions.size(); i < size; i++) {
+            PendingCompression pending = mPendingCompressions.get(i);
+            pending.frames.mStore.release(pending.bitmap);
+        }
+        mPendingCompressions.clear();
+        releaseScratch();
+        for (int i = 0, size = mFrames.size(); i < size; i++) {
+            Frames frames = mFrames.get(i);
+            while (frames.evictEldestCompressed()) {
+                // keep going
+            }
+        }
+        while (mBytes > maxBytes) {
+            Frames largest = null;
+            for (int i = 0, size = mFrames.size(); i < size; i++) {
+                Frames frames = mFrames.get(i);
+                if (largest == null || frames.mBytes > largest.mBytes) {
+                    largest = frames;
+                }
+            }
+            if (largest == null || !largest.evict(false)) {
+                break;
+            }
+        }
+        for (int i = 0, size = mFrames.size(); i < size; i++) {
+            Frames frames = mFrames.get(i);
+            if (frames.mShrinkOnTrim) {
+                int count = frames.mEntries.size();
+                frames.mMaxCount = count > 0 ? Math.min(frames.mMaxCount, count) : frames.mMaxCount / 2;
+            }
+        }
+    }
+
+    /**
+     * Count bytes held outside of the views against the budget, evicting frames of the views to
+     * make room.
+     *
+     * @return false if they don't fit, nothing is reserved then
+     */
+    boolean reserveBytes(long bytes) {
+        boolean reserved;
+        synchronized (this) {
+            if (bytes > mMaxBytes) {
+                return false;
+            }
+            mBytes += bytes;
+            trimToMaxBytes();
+            reserved = mBytes <= mMaxBytes;
+            if (!reserved) {
+                mBytes -= bytes;
+            }
+        }
+        compressPending();
+        return reserved;
+    }
+
+    synchronized void releaseBytes(long bytes) {
+        mBytes -= bytes;
+    }
+
+    /**
+     * @param store    receives the references of the evicted frames
+     * @param maxCount max number of frames of the view
+     * @param maxBytes max bytes of the view
+     */
+    synchronized Frames createFrames(WebpFrameStore store, int maxCount, long maxBytes) {
+        Frames frames = new Frames(store, maxCount, maxBytes);
+        mFrames.add(frames);
+        return frames;
+    }
+
+    /**
+     * @param maxBytes max bytes of the delta cache, it is released whenever the cache is trimmed
+     */
+    synchronized WebpDeltaCache createDeltaCache(GifDecoder.BitmapProvider bitmapProvider, long maxBytes) {
+        WebpDeltaCache deltaCache = new WebpDeltaCache(bitmapProvider, maxBytes);
+        mDeltaCaches.add(deltaCache);
+        return deltaCache;
+    }
+
+    synchronized void removeDeltaCache(WebpDeltaCache deltaCache) {
+        mDeltaCaches.remove(deltaCache);
+    }
+
+    /**
+     * Join the view shared by the decoders of key, or create it with the given limits if it's the
+     * first one. Each call must be paired with {@link Frames#clear()}.
+     *
+     * @param key identifies the content and the size of the frames
+     */
+    synchronized Frames obtainSharedFrames(Object key, WebpFrameStore store, int maxCount, long maxBytes) {
+        Frames frames = mSharedFrames.get(key);
+        if (frames == null) {
+            frames = createFrames(store, maxCount, maxBytes);
+            frames.mKey = key;
+            mSharedFrames.put(key, frames);
+        } else {
+            frames.mUsers++;
+        }
+        return frames;
+    }
+
+    private static int getByteSize(Bitmap bitmap) {
+        // Computed from the dimensions, they are still valid if the bitmap was recycled meanwhile
+        return Util.getBitmapByteSize(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+    }
+
+    private void trimToMaxBytes() {
+        while (mBytes > mMaxBytes) {
+            Frames largest = null;
+            for (int i = 0, size = mFrames.size(); i < size; i++) {
+                Frames frames = mFrames.get(i);
+                if (largest == null || frames.mBytes > largest.mBytes) {
+                    largest = frames;
+                }
+            }
+            if (largest == null || !largest.evict(true)) {
+                return;
+            }
+        }
+    }
+
+    private void trimToMaxCompressedBytes() {
+        while (mCompressedBytes > mMaxCompressedBytes) {
+            Frames largest = null;
+            for (int i = 0, size = mFrames.size(); i < size; i++) {
+                Frames frames = mFrames.get(i);
+                if (largest == null || frames.mCompressedBytes > largest.mCompressedBytes) {
+                    largest = frames;
+                }
+            }
+            if (largest == null || !largest.evictEldestCompressed()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compress the frames evicted while holding the lock, then insert them under it. Must be
+     * called without holding the lock, after anything that may evict.
+     */
+    private void compressPending() {
+        PendingCompression[] pendings;
+        synchronized (this) {
+            if (mPendingCompressions.isEmpty()) {
+                return;
+            }
+            pendings = mPendingCompressions.toArray(new PendingCompression[mPendingCompressions.size()]);
+            mPendingCompressions.clear();
+        }
+        for (PendingCompression pending : pendings) {
+            CompressedFrame compressed = compress(pending.bitmap, pending.allowRgb565);
+            if (compressed != null) {
+                pending.frames.putCompressed(pending.frameNumber, compressed);
+            }
+            // Drop the reference the cache kept while compressing
+            pending.frames.mStore.release(pending.bitmap);
+        }
+    }
+
+    private void releaseScratch() {
+        synchronized (mScratchLock) {
+            mPixels = null;
+            mCanvas = null;
+        }
+    }
+
+    private int[] obtainPixels(int count) {
+        if (mPixels == null || mPixels.length < count) {
+            mPixels = new int[count];
+        }
+        return mPixels;
+    }
+
+    private static int alpha(int pixel) {
+        // Pixels are copied in memory order, R G B A
+        return LITTLE_ENDIAN ? pixel >>> 24 : pixel & 0xFF;
+    }
+
+    /**
+     * @return the compressed frame, or null if it doesn't compress well enough to be worth keeping
+     */
+    private CompressedFrame compress(Bitmap bitmap, boolean allowRgb565) {
+        if (bitmap.isRecycled() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return null;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int count = width * height;
+        boolean opaque;
+        synchronized (mScratchLock) {
+            int[] pixels = obtainPixels(count);
+            // Raw copy, unlike getPixels() it doesn't unpremultiply
+            bitmap.copyPixelsToBuffer(IntBuffer.wrap(pixels, 0, count));
+
+            int runCount = 1;
+            opaque = alpha(pixels[0]) == 0xFF;
+            for (int i = 1; i < count; i++) {
+                int pixel = pixels[i];
+                if (pixel != pixels[i - 1]) {
+                    runCount++;
+                }
+                if (opaque && alpha(pixel) != 0xFF) {
+                    opaque = false;
+                }
+            }
+            if (runCount * 2 * MIN_COMPRESSION_RATIO <= count) {
+                int[] runs = new int[runCount * 2];
+                int run = 0;
+                int start = 0;
+                for (int i = 1; i <= count; i++) {
+                    if (i == count || pixels[i] != pixels[start]) {
+                        runs[run++] = i - start;
+                        runs[run++] = pixels[start];
+                        start = i;
+                    }
+                }
+                return new CompressedFrame(width, height, runs, null);
+            }
+        }
+        if (opaque && allowRgb565) {
+            Bitmap rgb565 = bitmap.copy(Bitmap.Config.RGB_565, false);
+            if (rgb565 != null) {
+                return new CompressedFrame(width, height, null, rgb565);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Render frame into a bitmap of store, holding one reference.
+     */
+    private Bitmap restore(CompressedFrame frame, WebpFrameStore store) {
+        Bitmap bitmap = store.obtain(frame.width, frame.height, Bitmap.Config.ARGB_8888);
+        synchronized (mScratchLock) {
+            if (frame.runs != null) {
+                int count = frame.width * frame.height;
+                int[] pixels = obtainPixels(count);
+                int[] runs = frame.runs;
+                int offset = 0;
+                for (int i = 0; i < runs.length; i += 2) {
+                    int end = offset + runs[i];
+                    int pixel = runs[i + 1];
+                    while (offset < end) {
+                        pixels[offset++] = pixel;
+                    }
+                }
+                bitmap.copyPixelsFromBuffer(IntBuffer.wrap(pixels, 0, count));
+            } else {
+                if (mCanvas == null) {
+                    mCanvas = new Canvas();
+                }
+                // Opaque, it covers whatever the pooled bitmap held
+                mCanvas.setBitmap(bitmap);
+                mCanvas.drawBitmap(frame.rgb565, 0, 0, null);
+                mCanvas.setBitmap(null);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Picks the frame a view evicts.
+     */
+    interface EvictionPolicy {
+        /**
+         * Called while holding the cache lock, on any thread evicting frames.
+         *
+         * @return how good a candidate for eviction the frame is, the highest is evicted
+         */
+        float getEvictionScore(int frameNumber);
+    }
+
+    /**
+     * Hit counts of the cache tiers, rates are relative to all the frames looked up.
+     */
+    public static final class Stats {
+        private final long hitCount;
+        private final long compressedHitCount;
+        private final long missCount;
+
+        Stats(long hitCount, long compressedHitCount, long missCount) {
+            this.hitCount = hitCount;
+            this.compressedHitCount = compressedHitCount;
+            this.missCount = missCount;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getCompressedHitCount() {
+            return compressedHitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getRequestCount() {
+            return hitCount + compressedHitCount + missCount;
+        }
+
+        public float getHitRate() {
+            long requests = getRequestCount();
+            return requests == 0 ? 0f : (float) hitCount / requests;
+        }
+
+        public float getCompressedHitRate() {
+            long requests = getRequestCount();
+            return requests == 0 ? 0f : (float) compressedHitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hitCount + ", compressedHits=" + compressedHitCount
+                    + ", misses=" + missCount + "}";
+        }
+    }
+
+    private static final class PendingCompression {
+        final Frames frames;
+        final int frameNumber;
+        /** Holds a reference of the store of frames until it is compressed */
+        final Bitmap bitmap;
+        final boolean allowRgb565;
+
+        PendingCompression(Frames frames, int frameNumber, Bitmap bitmap, boolean allowRgb565) {
+            this.frames = frames;
+            this.frameNumber = frameNumber;
+            this.bitmap = bitmap;
+            this.allowRgb565 = allowRgb565;
+        }
+    }
+
+    private static final class CompressedFrame {
+        final int width;
+        final int height;
+        /** Pairs of run length and pixel value, or null */
+        final int[] runs;
+        /** Copy of an opaque frame, or null */
+        final Bitmap rgb565;
+        final int byteSize;
+
+        CompressedFrame(int width, int height, int[] runs, Bitmap rgb565) {
+            this.width = width;
+            this.height = height;
+            this.runs = runs;
+            this.rgb565 = rgb565;
+            this.byteSize = runs != null ? runs.length * 4 : getByteSize(rgb565);
+        }
+
+        void recycle() {
+            if (rgb565 != null) {
+                rgb565.recycle();
+            }
+        }
+    }
+
+    /**
+     * Frames of one decoder, or of the decoders sharing it, keyed by frame number in access order.
+     * Every frame put holds a reference of the {@link WebpFrameStore} of the view, dropped when it
+     * is evicted.
+     */
+    final class Frames {
+        private final WebpFrameStore mStore;
+        private int mMaxCount;
+        private final long mMaxBytes;
+        private final LinkedHashMap<Integer, Bitmap> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Integer, CompressedFrame> mCompressed =
+                new LinkedHashMap<>(16, 0.75f, true);
+        private long mBytes;
+        private long mCompressedBytes;
+        private boolean mCleared;
+        private Object mKey;
+        private int mUsers = 1;
+        private boolean mCompress;
+        private boolean mAllowRgb565;
+        private EvictionPolicy mEvictionPolicy;
+        private boolean mShrinkOnTrim;
+
+        Frames(WebpFrameStore store, int maxCount, long maxBytes) {
+            mStore = store;
+            mMaxCount = maxCount;
+            mMaxBytes = maxBytes;
+        }
+
+        /**
+         * Decoders sharing the view must render into and release through this store.
+         */
+        WebpFrameStore getStore() {
+            return mStore;
+        }
+
+        /**
+         * Keep evicted frames in the compressed tier.
+         *
+         * @param allowRgb565 opaque frames that don't run-length encode well may be kept in
+         *                    RGB_565, which loses color precision
+         */
+        void setCompression(boolean compress, boolean allowRgb565) {
+            synchronized (WebpFrameCache.this) {
+                mCompress = compress;
+                mAllowRgb565 = allowRgb565;
+            }
+        }
+
+        /**
+         * Change the max number of frames, evicting the frames over it.
+         */
+        void setMaxCount(int maxCount) {
+            synchronized (WebpFrameCache.this) {
+                mMaxCount = maxCount;
+                while (mEntries.size() > mMaxCount) {
+                    evict(true);
+                }
+            }
+            compressPending();
+        }
+
+        /**
+         * Lower the max number of frames when the cache is trimmed, see {@link #trimToSize(long)}.
+         */
+        void setShrinkOnTrim(boolean shrinkOnTrim) {
+            synchronized (WebpFrameCache.this) {
+                mShrinkOnTrim = shrinkOnTrim;
+            }
+        }
+
+        /**
+         * Evict by policy instead of least recently used. Ignored by shared views: the decoders
+         * sharing them may be at different points of the animation, and any of them may leave.
+         */
+        void setEvictionPolicy(EvictionPolicy policy) {
+            synchronized (WebpFrameCache.this) {
+                mEvictionPolicy = mKey == null ? policy : null;
+            }
+        }
+
+        /**
+         * Look a frame up in both tiers, a compressed frame is restored and moves back to the
+         * bitmap tier.
+         *
+         * @param recordStats whether the lookup counts in {@link #getStats()}, false when
+         *                    probing for a frame to start rendering from
+         * @return the cached frame holding a new reference of the store, so another decoder
+         * sharing the view can't evict it meanwhile; or null
+         */
+        Bitmap acquire(int frameNumber, boolean recordStats) {
+            CompressedFrame compressed;
+            synchronized (WebpFrameCache.this) {
+                Bitmap bitmap = mEntries.get(frameNumber);
+                if (bitmap != null && !bitmap.isRecycled()) {
+                    mStore.acquire(bitmap);
+                    if (recordStats) {
+                        mHitCount++;
+                    }
+                    return bitmap;
+                }
+                compressed = removeCompressed(frameNumber);
+                if (compressed == null) {
+                    if (recordStats) {
+                        mMissCount++;
+                    }
+                    return null;
+                }
+                if (recordStats) {
+                    mCompressedHitCount++;
+                }
+            }
+            // Restored without the lock, the frame was taken out of the compressed tier
+            Bitmap bitmap = restore(compressed, mStore);
+            compressed.recycle();
+            // One reference for the caller, the other one is taken over by the bitmap tier
+            mStore.acquire(bitmap);
+            put(frameNumber, bitmap);
+            return bitmap;
+        }
+
+        /**
+         * Take over a reference of bitmap, it is dropped right away if the frame can't be cached.
+         */
+        void put(int frameNumber, Bitmap bitmap) {
+            int byteSize = getByteSize(bitmap);
+            synchronized (WebpFrameCache.this) {
+                if (mCleared || mMaxCount <= 0 || byteSize > mMaxBytes || byteSize > WebpFrameCache.this.mMaxBytes) {
+                    mStore.release(bitmap);
+                    return;
+                }
+                remove(frameNumber);
+                mEntries.put(frameNumber, bitmap);
+                mBytes += byteSize;
+                WebpFrameCache.this.mBytes += byteSize;
+                while (mEntries.size() > mMaxCount || mBytes > mMaxBytes) {
+                    evict(true);
+                }
+                trimToMaxBytes();
+            }
+            compressPending();
+        }
+
+        void remove(int frameNumber) {
+            synchronized (WebpFrameCache.this) {
+                Bitmap bitmap = mEntries.remove(frameNumber);
+                if (bitmap != null) {
+                    onRemoved(bitmap, true);
+                }
+                CompressedFrame compressed = removeCompressed(frameNumber);
+                if (compressed != null) {
+                    compressed.recycle();
+                }
+            }
+        }
+
+        /**
+         * Evict every frame and leave the cache, nothing can be put afterwards. A shared view is
+         * only cleared once all its decoders left it.
+         */
+        void clear() {
+            synchronized (WebpFrameCache.this) {
+                // The policy belongs to the decoder leaving, whoever stays falls back to LRU
+                mEvictionPolicy = null;
+                if (mCleared || --mUsers > 0) {
+                    return;
+                }
+                if (mKey != null) {
+                    mSharedFrames.remove(mKey);
+                }
+                mCleared = true;
+                while (evict(false)) {
+                    // keep going
+                }
+                while (evictEldestCompressed()) {
+                    // keep going
+                }
+                for (int i = mPendingCompressions.size() - 1; i >= 0; i--) {
+                    PendingCompression pending = mPendingCompressions.get(i);
+                    if (pending.frames == this) {
+                        mPendingCompressions.remove(i);
+                        mStore.release(pending.bitmap);
+                    }
+                }
+                mFrames.remove(this);
+                if (mFrames.isEmpty()) {
+                    releaseScratch();
+                }
+            }
+        }
+
+        /**
+         * Drop the bitmap picked by the eviction policy, or the eldest one.
+         *
+         * @param keepCompressed keep it in the compressed tier if it compresses well, it is
+         *                       compressed by {@link #compressPending()} once the lock is released
+         */
+        private boolean evict(boolean keepCompressed) {
+            Iterator<Map.Entry<Integer, Bitmap>> iterator = mEntries.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            Map.Entry<Integer, Bitmap> entry = iterator.next();
+            if (mEvictionPolicy != null && !mCleared) {
+                float maxScore = mEvictionPolicy.getEvictionScore(entry.getKey());
+                while (iterator.hasNext()) {
+                    Map.Entry<Integer, Bitmap> candidate = iterator.next();
+                    float score = mEvictionPolicy.getEvictionScore(candidate.getKey());
+                    if (score > maxScore) {
+                        maxScore = score;
+                        entry = candidate;
+                    }
+                }
+            }
+            int frameNumber = entry.getKey();
+            Bitmap bitmap = mEntries.remove(frameNumber);
+            if (keepCompressed && mCompress && !mCleared && !bitmap.isRecycled()) {
+                // The reference of the cache is kept until the frame is compressed
+                onRemoved(bitmap, false);
+                mPendingCompressions.add(new PendingCompression(this, frameNumber, bitmap, mAllowRgb565));
+            } else {
+                onRemoved(bitmap, true);
+            }
+            return true;
+        }
+
+        /**
+         * Insert a frame compressed by {@link #compressPending()}, unless the frame was put again
+         * or the view cleared meanwhile.
+         */
+        private void putCompressed(int frameNumber, CompressedFrame compressed) {
+            synchronized (WebpFrameCache.this) {
+                if (mCleared || !mCompress || mEntries.containsKey(frameNumber)
+                        || mCompressed.containsKey(frameNumber)) {
+                    compressed.recycle();
+                    return;
+                }
+                mCompressed.put(frameNumber, compressed);
+                mCompressedBytes += compressed.byteSize;
+                WebpFrameCache.this.mCompressedBytes += compressed.byteSize;
+                trimToMaxCompressedBytes();
+            }
+        }
+
+        private boolean evictEldestCompressed() {
+            Iterator<Map.Entry<Integer, CompressedFrame>> iterator = mCompressed.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            CompressedFrame compressed = iterator.next().getValue();
+            iterator.remove();
+            onCompressedRemoved(compressed);
+            compressed.recycle();
+            return true;
+        }
+
+        private CompressedFrame removeCompressed(int frameNumber) {
+            CompressedFrame compressed = mCompressed.remove(frameNumber);
+            if (compressed != null) {
+                onCompressedRemoved(compressed);
+            }
+            return compressed;
+        }
+
+        private void onCompressedRemoved(CompressedFrame compressed) {
+            mCompressedBytes -= compressed.byteSize;
+            WebpFrameCache.this.mCompressedBytes -= compressed.byteSize;
+        }
+
+        /**
+         * @param release drop the reference of the cache, the frame may still be displayed
+         */
+        private void onRemoved(Bitmap bitmap, boolean release) {
+            int byteSize = getByteSize(bitmap);
+            mBytes -= byteSize;
+            WebpFrameCache.this.mBytes -= byteSize;
+            if (release) {
+                mStore.release(bitmap);
+            }
+        }
+    }
+}
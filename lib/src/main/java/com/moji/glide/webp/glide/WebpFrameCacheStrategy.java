@@ -9,19 +9,37 @@ public final class WebpFrameCacheStrategy {
 
     public static final WebpFrameCacheStrategy ALL = new Builder().cacheAll().build();
 
+    public static final WebpFrameCacheStrategy ADAPTIVE = new Builder().cacheAdaptive().build();
+
+    public static final WebpFrameCacheStrategy DELTA = new Builder().cacheDelta().build();
+
     public enum CacheControl {
         CACHE_NONE,
         CACHE_LIMITED,
         CACHE_AUTO,
         CACHE_ALL,
+        /** Cache frames up to a number of bytes, see {@link Builder#cacheBytes(long)} */
+        CACHE_BYTES,
+        /**
+         * Measure the first loop, then cache the frames that can't be rendered in time, or all of
+         * them if they fit, see {@link Builder#cacheAdaptive(long)}
+         */
+        CACHE_ADAPTIVE,
+        /**
+         * Cache full canvases at key frames and only the changed region of the other frames, see
+         * {@link Builder#cacheDelta(long)}
+         */
+        CACHE_DELTA,
     }
 
     private CacheControl mCacheStrategy;
     private int mCacheSize;
+    private long mCacheBytes;
 
     private WebpFrameCacheStrategy(Builder builder) {
         this.mCacheStrategy = builder.cacheControl;
         this.mCacheSize = builder.cacheSize;
+        this.mCacheBytes = builder.cacheBytes;
     }
 
     public CacheControl getCacheControl() {
@@ -44,9 +62,31 @@ public final class WebpFrameCacheStrategy {
         return this.mCacheSize;
     }
 
+    public boolean cacheBytes() {
+        return mCacheStrategy == CacheControl.CACHE_BYTES;
+    }
+
+    public boolean cacheAdaptive() {
+        return mCacheStrategy == CacheControl.CACHE_ADAPTIVE;
+    }
+
+    public boolean cacheDelta() {
+        return mCacheStrategy == CacheControl.CACHE_DELTA;
+    }
+
+    /**
+     * @return max bytes of frames cached by one animation in {@link CacheControl#CACHE_BYTES},
+     * {@link CacheControl#CACHE_ADAPTIVE} or {@link CacheControl#CACHE_DELTA} mode, 0 for the
+     * default of the last two
+     */
+    public long getCacheBytes() {
+        return this.mCacheBytes;
+    }
+
     public final static class Builder {
         private CacheControl cacheControl;
         private int cacheSize;
+        private long cacheBytes;
 
         public Builder noCache() {
             this.cacheControl = CacheControl.CACHE_NONE;
@@ -85,6 +125,56 @@ public final class WebpFrameCacheStrategy {
             return this;
         }
 
+        /**
+         * Cache as many frames as fit in cacheBytes, all animations together are still limited
+         * by the budget of {@link WebpFrameCache}.
+         */
+        public Builder cacheBytes(long cacheBytes) {
+            this.cacheBytes = cacheBytes;
+            this.cacheControl = cacheBytes > 0 ? CacheControl.CACHE_BYTES : CacheControl.CACHE_NONE;
+            return this;
+        }
+
+        /**
+         * Adapt the cache to the animation with the default budget, a quarter of the budget of
+         * {@link WebpFrameCache}.
+         */
+        public Builder cacheAdaptive() {
+            return cacheAdaptive(0);
+        }
+
+        /**
+         * Cache every frame during the first loop while measuring how long each one takes to
+         * render. Then, if the whole animation fits in maxBytes, keep all the frames and replay
+         * them without decoding anymore; otherwise only keep as many as fit of the frames that
+         * take longer to render than they are displayed. The cache shrinks again when the
+         * system is low on memory.
+         */
+        public Builder cacheAdaptive(long maxBytes) {
+            this.cacheBytes = maxBytes;
+            this.cacheControl = CacheControl.CACHE_ADAPTIVE;
+            return this;
+        }
+
+        /**
+         * Cache deltas with the default budget, a quarter of the budget of {@link WebpFrameCache}.
+         */
+        public Builder cacheDelta() {
+            return cacheDelta(0);
+        }
+
+        /**
+         * Store a full canvas at each key frame, and every few frames in between, and for the
+         * other frames only the pixels of the region that changed since the previous frame. Far
+         * more frames fit in maxBytes when frames only update part of the canvas; a frame is
+         * rebuilt with a few copies from the nearest full canvas.
+         */
+        public Builder cacheDelta(long maxBytes) {
+            this.cacheBytes = maxBytes;
+            this.cacheControl = CacheControl.CACHE_DELTA;
+            return this;
+        }
+
         public WebpFrameCacheStrategy build() {
             return new WebpFrameCacheStrategy(this);
         }
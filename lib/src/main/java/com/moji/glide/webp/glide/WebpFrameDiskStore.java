@@ -0,0 +1,261 @@
+package com.moji.glide.webp.glide;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.util.Util;
+import com.moji.glide.webp.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Composited frames stored on disk as raw ARGB_8888 pixels, one file per animation and output
+ * size next to Glide's own cache. Files are memory mapped: a rendered frame is copied straight
+ * into the mapping with {@link Bitmap#copyPixelsToBuffer} and replayed with
+ * {@link Bitmap#copyPixelsFromBuffer}, so an animation played again, even in a later session,
+ * doesn't need to be decoded.
+ * <p>
+ * A file is only trusted across sessions once all its frames were written and synced, the least
+ * recently used files are deleted past {@link #MAX_SIZE}. The decoders opening the same file share
+ * one {@link FrameFile} while any of them holds it, so a file has a single writer.
+ */
+final class WebpFrameDiskStore {
+    private static final String TAG = "WebpFrameDiskStore";
+    private static final String CACHE_DIR = "webp_frames";
+    private static final long MAX_SIZE = 128 * 1024 * 1024;
+    /** Bigger animations aren't stored, they would push out all the others */
+    private static final long MAX_FILE_SIZE = MAX_SIZE / 4;
+    private static final int MAGIC = 0x57465232; // WFR2
+    private static final int PAGE_SIZE = 4096;
+    private static final int CONTENT_HASH_OFFSET = 16;
+    private static final int CONTENT_HASH_SIZE = 32;
+    // magic, width, height, frame count and content hash, then a complete flag and one written
+    // flag per frame
+    private static final int HEADER_SIZE = CONTENT_HASH_OFFSET + CONTENT_HASH_SIZE;
+    private static final int COMPLETE_OFFSET = HEADER_SIZE;
+    private static final int FLAGS_OFFSET = HEADER_SIZE + 1;
+
+    private static volatile WebpFrameDiskStore sInstance;
+
+    private final Context mContext;
+    // Files held by decoders, dropped once none of them references the file anymore
+    private final Map<String, WeakReference<FrameFile>> mOpenFiles = new HashMap<>();
+
+    private WebpFrameDiskStore(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    static WebpFrameDiskStore get(Context context) {
+        if (sInstance == null) {
+            synchronized (WebpFrameDiskStore.class) {
+                if (sInstance == null) {
+                    sInstance = new WebpFrameDiskStore(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Open or create the file of an animation, it must not happen on the main thread. A file
+     * already open is shared rather than mapped again.
+     *
+     * @param contentHash SHA-256 of the whole source, see {@link Utils#hashContent}
+     * @return null if the frames are too big to be stored or the file can't be mapped
+     */
+    @Nullable
+    synchronized FrameFile open(@NonNull byte[] contentHash, int width, int height, int frameCount) {
+        if (contentHash.length != CONTENT_HASH_SIZE) {
+            return null;
+        }
+        String name = Util.sha256BytesToHex(contentHash) + "_" + width + "x" + height;
+        long frameBytes = (long) width * height * 4;
+        long dataOffset = alignToPage(FLAGS_OFFSET + frameCount);
+        long length = dataOffset + frameBytes * frameCount;
+        if (frameCount <= 0 || length > MAX_FILE_SIZE) {
+            return null;
+        }
+        FrameFile openFile = getOpenFile(name);
+        if (openFile != null && openFile.mFrameCount == frameCount && openFile.mFrameBytes == frameBytes) {
+            return openFile;
+        }
+        File dir = Glide.getPhotoCacheDir(mContext, CACHE_DIR);
+        if (dir == null) {
+            return null;
+        }
+        File file = new File(dir, name);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            boolean exists = randomAccessFile.length() == length;
+            if (!exists) {
+                trimToSize(dir, file, MAX_SIZE - length);
+                randomAccessFile.setLength(length);
+            }
+            // The mapping stays valid once the file is closed
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (!exists || !matches(buffer, contentHash, width, height, frameCount)) {
+                reset(buffer, contentHash, width, height, frameCount);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            FrameFile frameFile = new FrameFile(buffer, frameCount, (int) frameBytes, (int) dataOffset);
+            mOpenFiles.put(name, new WeakReference<>(frameFile));
+            return frameFile;
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.WARN)) {
+                Log.w(TAG, "Failed to open frame file", e);
+            }
+            file.delete();
+            return null;
+        }
+    }
+
+    @Nullable
+    private FrameFile getOpenFile(String name) {
+        Iterator<WeakReference<FrameFile>> iterator = mOpenFiles.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+        WeakReference<FrameFile> reference = mOpenFiles.get(name);
+        return reference != null ? reference.get() : null;
+    }
+
+    private static long alignToPage(long offset) {
+        return (offset + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private static boolean matches(ByteBuffer buffer, byte[] contentHash, int width, int height, int frameCount) {
+        // A file that wasn't completed may hold torn frames of a previous session
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != width || buffer.getInt(8) != height
+                || buffer.getInt(12) != frameCount || buffer.get(COMPLETE_OFFSET) != 1) {
+            return false;
+        }
+        // The name is only a hint, frames are served for the content hashed in the header
+        for (int i = 0; i < CONTENT_HASH_SIZE; i++) {
+            if (buffer.get(CONTENT_HASH_OFFSET + i) != contentHash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void reset(ByteBuffer buffer, byte[] contentHash, int width, int height, int frameCount) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, width);
+        buffer.putInt(8, height);
+        buffer.putInt(12, frameCount);
+        for (int i = 0; i < CONTENT_HASH_SIZE; i++) {
+            buffer.put(CONTENT_HASH_OFFSET + i, contentHash[i]);
+        }
+        buffer.put(COMPLETE_OFFSET, (byte) 0);
+        for (int i = 0; i < frameCount; i++) {
+            buffer.put(FLAGS_OFFSET + i, (byte) 0);
+        }
+    }
+
+    private void trimToSize(File dir, File keep, long maxSize) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > maxSize; i++) {
+            long length = files[i].length();
+            // Files still open keep being written, they are trimmed once they were left
+            if (!files[i].equals(keep) && !mOpenFiles.containsKey(files[i].getName()) && files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /**
+     * Mapped frames of one animation at one output size.
+     */
+    static final class FrameFile {
+        private final MappedByteBuffer mBuffer;
+        private final int mFrameCount;
+        private final int mFrameBytes;
+        private final int mDataOffset;
+        private int mWrittenCount;
+
+        FrameFile(MappedByteBuffer buffer, int frameCount, int frameBytes, int dataOffset) {
+            mBuffer = buffer;
+            mFrameCount = frameCount;
+            mFrameBytes = frameBytes;
+            mDataOffset = dataOffset;
+            for (int i = 0; i < frameCount; i++) {
+                if (buffer.get(FLAGS_OFFSET + i) == 1) {
+                    mWrittenCount++;
+                }
+            }
+        }
+
+        /**
+         * @return false if the frame wasn't stored yet
+         */
+        synchronized boolean read(int frameNumber, Bitmap bitmap) {
+            if (!isWritten(frameNumber) || !fits(bitmap)) {
+                return false;
+            }
+            bitmap.copyPixelsFromBuffer(frameBuffer(frameNumber));
+            return true;
+        }
+
+        synchronized void write(int frameNumber, Bitmap bitmap) {
+            if (frameNumber < 0 || frameNumber >= mFrameCount || isWritten(frameNumber) || !fits(bitmap)) {
+                return;
+            }
+            bitmap.copyPixelsToBuffer(frameBuffer(frameNumber));
+            mBuffer.put(FLAGS_OFFSET + frameNumber, (byte) 1);
+            if (++mWrittenCount == mFrameCount) {
+                // Sync the pixels before marking the file as complete
+                mBuffer.force();
+                mBuffer.put(COMPLETE_OFFSET, (byte) 1);
+                mBuffer.force();
+            }
+        }
+
+        private boolean isWritten(int frameNumber) {
+            return frameNumber >= 0 && frameNumber < mFrameCount && mBuffer.get(FLAGS_OFFSET + frameNumber) == 1;
+        }
+
+        private boolean fits(Bitmap bitmap) {
+            return !bitmap.isRecycled() && bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                    && bitmap.getByteCount() == mFrameBytes;
+        }
+
+        private ByteBuffer frameBuffer(int frameNumber) {
+            ByteBuffer buffer = mBuffer.duplicate();
+            int offset = mDataOffset + frameNumber * mFrameBytes;
+            buffer.limit(offset + mFrameBytes);
+            buffer.position(offset);
+            return buffer;
+        }
+    }
+}
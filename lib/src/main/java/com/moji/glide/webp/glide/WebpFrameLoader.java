@@ -1,6 +1,7 @@
 package com.moji.glide.webp.glide;
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
@@ -20,6 +21,7 @@ import com.bumptech.glide.load.Option;
 import com.bumptech.glide.load.Transformation;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.resource.UnitTransformation;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.CustomTarget;
 import com.bumptech.glide.request.transition.Transition;
@@ -61,6 +63,8 @@ public class WebpFrameLoader {
     private int firstFrameSize;
     private int width;
     private int height;
+    /** Region of the frame bitmap that changed with the last frame, see {@link #getChangedRegion()} */
+    private final Rect changedRegion = new Rect();
 
     public interface FrameCallback {
         void onFrameReady();
@@ -168,6 +172,27 @@ public class WebpFrameLoader {
         return gifDecoder.getFrameCount();
     }
 
+    /**
+     * @return the region of the current frame that differs from the frame shown before it, in
+     * frame bitmap coordinates. Empty if nothing changed.
+     */
+    Rect getChangedRegion() {
+        return changedRegion;
+    }
+
+    private void updateChangedRegion(int previousIndex, int index) {
+        // A transformation may move pixels around, only untransformed frames map 1:1 to the canvas
+        if (gifDecoder instanceof WebpDecoder && transformation instanceof UnitTransformation) {
+            ((WebpDecoder) gifDecoder).getChangedRegion(previousIndex, index, changedRegion);
+        } else {
+            changedRegion.set(0, 0, width, height);
+        }
+    }
+
+    boolean isLoadComplete() {
+        return !(gifDecoder instanceof WebpDecoder) || ((WebpDecoder) gifDecoder).isComplete();
+    }
+
     int getLoopCount() {
         return gifDecoder.getTotalIterationCount();
     }
@@ -239,7 +264,12 @@ public class WebpFrameLoader {
 
     private void recycleFirstFrame() {
         if (firstFrame != null) {
-            bitmapPool.put(firstFrame);
+            if (gifDecoder instanceof WebpDecoder) {
+                // The first frame may be shared with the frame cache of the decoder
+                ((WebpDecoder) gifDecoder).releaseFrame(firstFrame);
+            } else {
+                bitmapPool.put(firstFrame);
+            }
             firstFrame = null;
         }
     }
@@ -278,6 +308,16 @@ public class WebpFrameLoader {
         }
 
         if (delayTarget.getResource() != null) {
+            updateChangedRegion(current != null ? current.index : -1, delayTarget.index);
+            if (current != null && changedRegion.isEmpty()) {
+                // Same pixels as the frame on screen, keep showing that one so it needn't be redrawn
+                handler.obtainMessage(FrameLoaderCallback.MSG_CLEAR, delayTarget).sendToTarget();
+                for (int i = callbacks.size() - 1; i >= 0; i--) {
+                    callbacks.get(i).onFrameReady();
+                }
+                loadNextFrame();
+                return;
+            }
             recycleFirstFrame();
             DelayTarget previous = current;
             current = delayTarget;
@@ -8,7 +8,7 @@ public interface WebpFramePlayStrategy {
 
     int getNextFrameIndex(int frameCount);
 
-    class Sequence implements WebpFramePlayStrategy {
+    class Sequence implements WebpFramePlayStrategy, PlayOrderAware {
 
         private int mIndex = -1;
 
@@ -17,9 +17,15 @@ public interface WebpFramePlayStrategy {
             mIndex = (mIndex + 1) % frameCount;
             return mIndex;
         }
+
+        @Override
+        public int getNextUseDistance(int previousIndex, int currentIndex, int frameIndex, int frameCount) {
+            int distance = (frameIndex - currentIndex + frameCount) % frameCount;
+            return distance == 0 ? frameCount : distance;
+        }
     }
 
-    class Repeat implements WebpFramePlayStrategy {
+    class Repeat implements WebpFramePlayStrategy, PlayOrderAware {
 
         private int mIndex = -1;
         private int mAddend = 1;
@@ -34,9 +40,28 @@ public interface WebpFramePlayStrategy {
             mIndex += mAddend;
             return mIndex;
         }
+
+        @Override
+        public int getNextUseDistance(int previousIndex, int currentIndex, int frameIndex, int frameCount) {
+            if (frameCount <= 1) {
+                return 1;
+            }
+            // Position of the frames in one back and forth cycle
+            int period = 2 * (frameCount - 1);
+            // Direction from the frames played, mAddend may already have moved on
+            boolean forward = currentIndex <= 0 || (currentIndex != frameCount - 1 && previousIndex < currentIndex);
+            int phase = forward ? currentIndex : period - currentIndex;
+            int distance = cycleDistance(phase, frameIndex, period);
+            return Math.min(distance, cycleDistance(phase, period - frameIndex, period));
+        }
+
+        private static int cycleDistance(int fromPhase, int toPhase, int period) {
+            int distance = ((toPhase - fromPhase) % period + period) % period;
+            return distance == 0 ? period : distance;
+        }
     }
 
-    class Revert implements WebpFramePlayStrategy {
+    class Revert implements WebpFramePlayStrategy, PlayOrderAware {
 
         private int mIndex = 0;
 
@@ -48,6 +73,12 @@ public interface WebpFramePlayStrategy {
             mIndex -= 1;
             return mIndex;
         }
+
+        @Override
+        public int getNextUseDistance(int previousIndex, int currentIndex, int frameIndex, int frameCount) {
+            int distance = (currentIndex - frameIndex + frameCount) % frameCount;
+            return distance == 0 ? frameCount : distance;
+        }
     }
 }
 
@@ -0,0 +1,50 @@
+package com.moji.glide.webp.glide;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.engine.Initializable;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.util.Util;
+
+/**
+ * A frame handed to {@link WebpFrameLoader}, recycling it releases the display reference of the
+ * frame instead of putting the bitmap back into the pool, the frame cache may still hold it.
+ */
+final class WebpFrameResource implements Resource<Bitmap>, Initializable {
+    private final Bitmap bitmap;
+    private final WebpDecoder decoder;
+
+    WebpFrameResource(@NonNull Bitmap bitmap, @NonNull WebpDecoder decoder) {
+        this.bitmap = bitmap;
+        this.decoder = decoder;
+    }
+
+    @NonNull
+    @Override
+    public Class<Bitmap> getResourceClass() {
+        return Bitmap.class;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap get() {
+        return bitmap;
+    }
+
+    @Override
+    public int getSize() {
+        return Util.getBitmapByteSize(bitmap);
+    }
+
+    @Override
+    public void recycle() {
+        decoder.releaseFrame(bitmap);
+    }
+
+    @Override
+    public void initialize() {
+        bitmap.prepareToDraw();
+    }
+}
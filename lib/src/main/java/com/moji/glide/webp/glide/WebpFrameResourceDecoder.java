@@ -0,0 +1,29 @@
+package com.moji.glide.webp.glide;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+
+/**
+ * Decode the next frame of a {@link WebpDecoder} for {@link WebpFrameLoader}, replaces Glide's
+ * GifFrameResourceDecoder so that frames are released through {@link WebpFrameStore}.
+ */
+public final class WebpFrameResourceDecoder implements ResourceDecoder<WebpDecoder, Bitmap> {
+
+    @Override
+    public boolean handles(@NonNull WebpDecoder source, @NonNull Options options) {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Resource<Bitmap> decode(@NonNull WebpDecoder source, int width, int height, @NonNull Options options) {
+        Bitmap bitmap = source.getNextFrame();
+        return bitmap == null ? null : new WebpFrameResource(bitmap, source);
+    }
+}
@@ -0,0 +1,59 @@
+package com.moji.glide.webp.glide;
+
+import android.graphics.Bitmap;
+
+import com.bumptech.glide.gifdecoder.GifDecoder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counts of the frame bitmaps of a decoder. A rendered frame is shared by the frame
+ * cache and the display instead of being copied, it goes back to the pool once both released it.
+ * <p>
+ * Frames are acquired on the decode thread and released on the main thread.
+ */
+final class WebpFrameStore {
+    private final GifDecoder.BitmapProvider mBitmapProvider;
+    private final Map<Bitmap, Integer> mReferences = new HashMap<>();
+
+    WebpFrameStore(GifDecoder.BitmapProvider bitmapProvider) {
+        mBitmapProvider = bitmapProvider;
+    }
+
+    /**
+     * @return a bitmap from the pool holding one reference
+     */
+    Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = mBitmapProvider.obtain(width, height, config);
+        synchronized (this) {
+            mReferences.put(bitmap, 1);
+        }
+        return bitmap;
+    }
+
+    synchronized void acquire(Bitmap bitmap) {
+        Integer count = mReferences.get(bitmap);
+        mReferences.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Drop a reference, a bitmap unknown to the store, e.g. a transformed first frame, goes
+     * back to the pool right away.
+     */
+    void release(Bitmap bitmap) {
+        boolean unused;
+        synchronized (this) {
+            Integer count = mReferences.get(bitmap);
+            unused = count == null || count <= 1;
+            if (unused) {
+                mReferences.remove(bitmap);
+            } else {
+                mReferences.put(bitmap, count - 1);
+            }
+        }
+        if (unused) {
+            mBitmapProvider.release(bitmap);
+        }
+    }
+}
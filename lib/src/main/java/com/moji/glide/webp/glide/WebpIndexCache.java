@@ -0,0 +1,174 @@
+package com.moji.glide.webp.glide;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.DiskLruCacheWrapper;
+import com.moji.glide.webp.Utils;
+import com.moji.glide.webp.parser.WebPParser;
+import com.moji.glide.webp.parser.WebpFrameIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Disk cache of parsed frame indexes, stored in a {@link DiskCache} next to Glide's own cache
+ * so an animation opened again skips {@link WebPParser#parseIndex}.
+ * <p>
+ * Decoders never see the model key of a request, entries are keyed by the content hash of the
+ * source when the decoder computed one, see {@link Utils#hashContent}, or else by its length, head
+ * and tail bytes, and checked with {@link WebPParser#matchesIndex} on a hit.
+ */
+final class WebpIndexCache {
+    private static final String TAG = "WebpIndexCache";
+    private static final String CACHE_DIR = "webp_index";
+    private static final long CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static volatile WebpIndexCache sInstance;
+
+    private final Context mContext;
+    private DiskCache mDiskCache;
+
+    private WebpIndexCache(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    static WebpIndexCache get(Context context) {
+        if (sInstance == null) {
+            synchronized (WebpIndexCache.class) {
+                if (sInstance == null) {
+                    sInstance = new WebpIndexCache(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Open the cache lazily, it reads the journal so it must not happen on the main thread.
+     */
+    @Nullable
+    private synchronized DiskCache getDiskCache() {
+        if (mDiskCache == null) {
+            File cacheDir = Glide.getPhotoCacheDir(mContext, CACHE_DIR);
+            if (cacheDir != null) {
+                mDiskCache = DiskLruCacheWrapper.create(cacheDir, CACHE_SIZE);
+            }
+        }
+        return mDiskCache;
+    }
+
+    /**
+     * @param contentHash hash of the whole source if the decoder needs it anyway, null to only
+     *                    hash its ends
+     * @return the index stored for source, or null if there is none or it doesn't match source
+     */
+    @Nullable
+    WebpFrameIndex get(@NonNull ByteBuffer source, @Nullable byte[] contentHash) {
+        DiskCache diskCache = getDiskCache();
+        if (diskCache == null) {
+            return null;
+        }
+        IndexKey key = new IndexKey(source, contentHash);
+        File file = diskCache.get(key);
+        if (file == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            WebpFrameIndex index = WebpFrameIndex.readFrom(in);
+            if (WebPParser.matchesIndex(source, index)) {
+                return index;
+            }
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.WARN)) {
+                Log.w(TAG, "Failed to read frame index", e);
+            }
+        }
+        diskCache.delete(key);
+        return null;
+    }
+
+    void put(@NonNull ByteBuffer source, @Nullable byte[] contentHash, @NonNull final WebpFrameIndex index) {
+        DiskCache diskCache = getDiskCache();
+        if (diskCache == null) {
+            return;
+        }
+        diskCache.put(new IndexKey(source, contentHash), new DiskCache.Writer() {
+            @Override
+            public boolean write(@NonNull File file) {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file)))) {
+                    index.writeTo(out);
+                    return true;
+                } catch (IOException e) {
+                    if (Log.isLoggable(TAG, Log.WARN)) {
+                        Log.w(TAG, "Failed to write frame index", e);
+                    }
+                    return false;
+                }
+            }
+        });
+    }
+
+    private static final class IndexKey implements Key {
+        // Bytes hashed at each end of the source, they cover the header and the last frame
+        private static final int SAMPLE_SIZE = 4 * 1024;
+
+        private final byte[] fingerprint;
+        private final int hashCode;
+
+        IndexKey(ByteBuffer source, @Nullable byte[] contentHash) {
+            if (contentHash != null) {
+                fingerprint = contentHash;
+                hashCode = Arrays.hashCode(fingerprint);
+                return;
+            }
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            ByteBuffer buffer = source.duplicate();
+            int length = buffer.limit();
+            digest.update(ByteBuffer.allocate(4).putInt(length).array());
+            buffer.position(0).limit(Math.min(SAMPLE_SIZE, length));
+            digest.update(buffer);
+            buffer.limit(length).position(Math.max(0, length - SAMPLE_SIZE));
+            digest.update(buffer);
+            fingerprint = digest.digest();
+            hashCode = Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
+            messageDigest.update(fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IndexKey && Arrays.equals(fingerprint, ((IndexKey) o).fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
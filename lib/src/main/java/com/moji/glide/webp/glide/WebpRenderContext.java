@@ -0,0 +1,70 @@
+package com.moji.glide.webp.glide;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+
+import com.bumptech.glide.gifdecoder.GifDecoder;
+
+/**
+ * Objects a {@link WebpDecoder} reuses for every frame, so that steady state playback doesn't
+ * allocate: a canvas rebound with {@link Canvas#setBitmap}, the decode options and a scratch
+ * bitmap big enough for the largest frame, which every frame is decoded into.
+ */
+final class WebpRenderContext {
+    private final GifDecoder.BitmapProvider mBitmapProvider;
+    /** Canvas of the frame being rendered */
+    final Canvas canvas = new Canvas();
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    private Bitmap mScratchBitmap;
+
+    WebpRenderContext(GifDecoder.BitmapProvider bitmapProvider) {
+        mBitmapProvider = bitmapProvider;
+        options.inMutable = true;
+    }
+
+    /**
+     * Before KitKat a bitmap can only be reused for a frame of the exact same size, a bitmap is
+     * taken from the pool for every frame instead of the scratch one.
+     *
+     * @param maxWidth  width of the largest frame, the scratch bitmap is allocated at this size
+     * @param maxHeight height of the largest frame
+     * @return a transparent bitmap of width x height, hand it back to {@link #releaseFrameBitmap}
+     */
+    Bitmap obtainFrameBitmap(int width, int height, int maxWidth, int maxHeight, Bitmap.Config config) {
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            bitmap = mBitmapProvider.obtain(width, height, config);
+        } else {
+            if (mScratchBitmap == null || mScratchBitmap.getAllocationByteCount() < width * height * 4) {
+                // Frames may grow while an image is still being received
+                if (mScratchBitmap != null) {
+                    mBitmapProvider.release(mScratchBitmap);
+                }
+                mScratchBitmap = mBitmapProvider.obtain(Math.max(width, maxWidth), Math.max(height, maxHeight),
+                        config);
+            }
+            mScratchBitmap.reconfigure(width, height, config);
+            bitmap = mScratchBitmap;
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    void releaseFrameBitmap(Bitmap bitmap) {
+        if (bitmap != mScratchBitmap) {
+            mBitmapProvider.release(bitmap);
+        }
+    }
+
+    void clear() {
+        canvas.setBitmap(null);
+        options.inBitmap = null;
+        if (mScratchBitmap != null) {
+            mBitmapProvider.release(mScratchBitmap);
+            mScratchBitmap = null;
+        }
+    }
+}
@@ -10,4 +10,78 @@ public class WebpStrategy {
     public static final Option<WebpFramePlayStrategy> FRAME_PLAY_STRATEGY = Option.memory(
             "com.moji.glide.webp.glide.webp.PlayStrategy", WebpFramePlayStrategy.SEQUENCE);
 
+    /**
+     * Local files at least this big are not mapped, only their frame index stays in memory and
+     * frame payloads are read on demand, see {@link com.moji.glide.webp.io.PagedPayloadSource}.
+     */
+    public static final Option<Long> PAGED_SOURCE_MIN_SIZE = Option.memory(
+            "com.moji.glide.webp.glide.webp.PagedSourceMinSize", 32L * 1024 * 1024);
+
+    /**
+     * Keep the parsed frame index of decoded buffers in a disk cache, the same animation opened
+     * again skips parsing.
+     */
+    public static final Option<Boolean> CACHE_FRAME_INDEX = Option.memory(
+            "com.moji.glide.webp.glide.webp.CacheFrameIndex", true);
+
+    /**
+     * Render frames at the size that fits the request target instead of the closest power of
+     * two step of the canvas, e.g. a 1080px animation shown in a small avatar keeps only the
+     * pixels it displays. Frames are still decoded with a power of two sample size and then
+     * scaled down, with filtering.
+     */
+    public static final Option<Boolean> RENDER_AT_TARGET_SIZE = Option.memory(
+            "com.moji.glide.webp.glide.webp.RenderAtTargetSize", false);
+
+    /**
+     * Keep a running canvas per decoder, frames played in sequence only draw their own rect on
+     * top of the previous frame instead of being rebuilt on a cleared canvas. Costs one more
+     * canvas sized bitmap per animation, which isn't counted by the frame cache, so it is off
+     * unless enabled for the few animations that benefit from it.
+     */
+    public static final Option<Boolean> INCREMENTAL_COMPOSITION = Option.memory(
+            "com.moji.glide.webp.glide.webp.IncrementalComposition", false);
+
+    /**
+     * Share rendered frames between the drawables showing the same animation at the same size,
+     * matched by a hash of the whole source. A frame rendered by one drawable is reused by the
+     * others instead of being rendered and cached again.
+     */
+    public static final Option<Boolean> SHARE_FRAMES = Option.memory(
+            "com.moji.glide.webp.glide.webp.ShareFrames", true);
+
+    /**
+     * Keep frames evicted from the frame cache run-length encoded in a second tier, when it at
+     * least halves their size, restoring one is much cheaper than rendering it again. See
+     * {@link WebpFrameCache#getStats()} for the hit rate of each tier.
+     */
+    public static final Option<Boolean> COMPRESS_EVICTED_FRAMES = Option.memory(
+            "com.moji.glide.webp.glide.webp.CompressEvictedFrames", true);
+
+    /**
+     * Keep opaque evicted frames that don't run-length encode well in RGB_565, half their size
+     * but with less color precision. Only applies with {@link #COMPRESS_EVICTED_FRAMES}.
+     */
+    public static final Option<Boolean> RGB_565_EVICTED_FRAMES = Option.memory(
+            "com.moji.glide.webp.glide.webp.Rgb565EvictedFrames", false);
+
+    /**
+     * Evict the cached frame that the {@link #FRAME_PLAY_STRATEGY} plays the furthest in the
+     * future, weighted by its measured render time, instead of the least recently used one. With
+     * K of N frames cached, a looping animation then hits K frames per loop where LRU hits none.
+     * Frames shared with {@link #SHARE_FRAMES}, or played by a strategy that isn't
+     * {@link PlayOrderAware}, stay least recently used.
+     */
+    public static final Option<Boolean> PLAYBACK_ORDER_EVICTION = Option.memory(
+            "com.moji.glide.webp.glide.webp.PlaybackOrderEviction", true);
+
+    /**
+     * Store the composited frames on disk next to Glide's cache and replay them from a memory
+     * mapped file, for animations that are played again and again, e.g. banners or stickers.
+     * Once all the frames were written, playing the animation, even in a later session, is a
+     * copy per frame with no decoding. Costs 4 bytes per pixel per frame of disk space.
+     */
+    public static final Option<Boolean> STORE_FRAMES_ON_DISK = Option.memory(
+            "com.moji.glide.webp.glide.webp.StoreFramesOnDisk", false);
+
 }
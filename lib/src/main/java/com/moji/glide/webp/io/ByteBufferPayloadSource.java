@@ -0,0 +1,32 @@
+package com.moji.glide.webp.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Payloads of a file that is fully available in a (heap or mapped) buffer.
+ */
+public class ByteBufferPayloadSource implements PayloadSource {
+    private final ByteBuffer byteBuffer;
+
+    /**
+     * @param byteBuffer the whole file, its position and limit are never changed
+     */
+    public ByteBufferPayloadSource(ByteBuffer byteBuffer) {
+        this.byteBuffer = byteBuffer.duplicate();
+    }
+
+    @Override
+    public void read(int offset, byte[] buffer, int start, int byteCount) {
+        byteBuffer.position(offset);
+        byteBuffer.get(buffer, start, byteCount);
+    }
+
+    @Override
+    public int getResidentSize() {
+        return byteBuffer.limit();
+    }
+
+    @Override
+    public void close() {
+    }
+}
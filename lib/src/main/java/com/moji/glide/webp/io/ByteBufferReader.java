@@ -14,9 +14,12 @@ public class ByteBufferReader implements Reader {
 
     private final ByteBuffer byteBuffer;
 
+    /**
+     * @param byteBuffer read from index 0 through a private view, its position is not changed
+     */
     public ByteBufferReader(ByteBuffer byteBuffer) {
-        this.byteBuffer = byteBuffer;
-        byteBuffer.position(0);
+        this.byteBuffer = byteBuffer.duplicate();
+        this.byteBuffer.position(0);
     }
 
     @Override
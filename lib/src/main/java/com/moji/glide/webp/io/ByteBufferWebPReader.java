@@ -0,0 +1,118 @@
+package com.moji.glide.webp.io;
+
+import com.bumptech.glide.util.ByteBufferUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link WebPReader} over a buffer that reads every field with absolute little-endian gets.
+ * The reader keeps its own cursor on a private view, the position of the shared buffer is never
+ * changed, so several readers can parse one read-only source at the same time.
+ */
+public class ByteBufferWebPReader extends WebPReader {
+    private final ByteBuffer view;
+    private int position;
+
+    /**
+     * @param source the whole file, starting at index 0
+     */
+    public ByteBufferWebPReader(ByteBuffer source) {
+        super(null);
+        this.view = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return uint16 at an absolute offset, the cursor is not moved
+     */
+    public int getUInt16(int offset) {
+        return view.getShort(offset) & 0xffff;
+    }
+
+    /**
+     * @return uint24 at an absolute offset, the cursor is not moved
+     */
+    public int getUInt24(int offset) {
+        return view.getShort(offset) & 0xffff | (view.get(offset + 2) & 0xff) << 16;
+    }
+
+    /**
+     * @return uint32 at an absolute offset, the cursor is not moved
+     */
+    public int getUInt32(int offset) {
+        return view.getInt(offset);
+    }
+
+    @Override
+    public int getUInt16() {
+        int val = getUInt16(position);
+        position += 2;
+        return val;
+    }
+
+    @Override
+    public int getUInt24() {
+        int val = getUInt24(position);
+        position += 3;
+        return val;
+    }
+
+    @Override
+    public int getUInt32() {
+        int val = getUInt32(position);
+        position += 4;
+        return val;
+    }
+
+    @Override
+    public int getFourCC() {
+        return getUInt32();
+    }
+
+    @Override
+    public long skip(long total) {
+        position += total;
+        return total;
+    }
+
+    @Override
+    public byte peek() {
+        return view.get(position++);
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+    }
+
+    @Override
+    public int position() {
+        return position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int start, int byteCount) {
+        view.position(position);
+        view.get(buffer, start, byteCount);
+        position += byteCount;
+        return byteCount;
+    }
+
+    @Override
+    public int available() {
+        return view.limit() - position;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public InputStream toInputStream() throws IOException {
+        ByteBuffer stream = view.duplicate();
+        stream.position(position);
+        return ByteBufferUtil.toStream(stream);
+    }
+}
@@ -0,0 +1,157 @@
+package com.moji.glide.webp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read a file, or a region of it, with positional reads through a small read-ahead buffer, used
+ * to build the frame index of files that are too big to be held in memory.
+ * The channel position is never changed and the channel is not closed by this reader.
+ */
+public class FileChannelReader implements Reader {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final FileChannel channel;
+    // Offset of the region in the channel, positions of this reader are relative to it
+    private final long offset;
+    private final int size;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int bufferOffset;
+    private int position;
+
+    public FileChannelReader(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    public FileChannelReader(FileChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.offset = offset;
+        this.size = (int) Math.min(Integer.MAX_VALUE, length);
+        buffer.limit(0);
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        bufferOffset = position;
+        buffer.limit(Math.max(0, Math.min(buffer.capacity(), size - bufferOffset)));
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + bufferOffset + buffer.position());
+            if (read == -1) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    public long skip(long total) throws IOException {
+        position += total;
+        return total;
+    }
+
+    @Override
+    public byte peek() throws IOException {
+        int index = position - bufferOffset;
+        if (index < 0 || index >= buffer.limit()) {
+            if (!fill()) {
+                throw new IOException("Unexpected end of file");
+            }
+            index = 0;
+        }
+        position++;
+        return buffer.get(index);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        position = 0;
+    }
+
+    @Override
+    public int position() {
+        return position;
+    }
+
+    @Override
+    public int read(byte[] dst, int start, int byteCount) throws IOException {
+        int total = 0;
+        while (total < byteCount) {
+            int index = position - bufferOffset;
+            if (index < 0 || index >= buffer.limit()) {
+                if (!fill()) {
+                    throw new IOException("Unexpected end of file");
+                }
+                index = 0;
+            }
+            int count = Math.min(byteCount - total, buffer.limit() - index);
+            System.arraycopy(buffer.array(), index, dst, start + total, count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return size - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public InputStream toInputStream() throws IOException {
+        return new RegionInputStream(offset + position, offset + size);
+    }
+
+    /**
+     * Positional reads of the rest of the region, independent of this reader.
+     */
+    private final class RegionInputStream extends InputStream {
+        private final long end;
+        private long streamPosition;
+
+        RegionInputStream(long start, long end) {
+            this.streamPosition = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = (int) Math.min(len, end - streamPosition);
+            if (count <= 0) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, count), streamPosition);
+            if (read > 0) {
+                streamPosition += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - streamPosition));
+            streamPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, end - streamPosition));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.moji.glide.webp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feed a synthetic container header followed by a payload of the source to the platform
+ * decoder, the frame payload is read in place instead of being copied into a standalone
+ * file first.
+ */
+public class FrameInputStream extends InputStream {
+    private final byte[] header;
+    private final PayloadSource source;
+    private final byte[] singleByte = new byte[1];
+    private int payloadOffset;
+    private int length;
+    private int position;
+    private int markPosition;
+
+    /**
+     * @param header container header, fed before the payload
+     * @param source payloads of the file
+     */
+    public FrameInputStream(byte[] header, PayloadSource source) {
+        this.header = header;
+        this.source = source;
+    }
+
+    /**
+     * Rewind the stream onto another payload of the source.
+     */
+    public void reset(int payloadOffset, int payloadSize) {
+        this.payloadOffset = payloadOffset;
+        this.length = header.length + payloadSize;
+        this.position = 0;
+        this.markPosition = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        if (position < header.length) {
+            return header[position++] & 0xff;
+        }
+        read(singleByte, 0, 1);
+        return singleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int start, int byteCount) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        int total = 0;
+        if (position < header.length) {
+            int count = Math.min(byteCount, header.length - position);
+            System.arraycopy(header, position, buffer, start, count);
+            position += count;
+            total = count;
+        }
+        int count = Math.min(byteCount - total, length - position);
+        if (count > 0) {
+            source.read(payloadOffset + position - header.length, buffer, start + total, count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, length - position));
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return length - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = markPosition;
+    }
+}
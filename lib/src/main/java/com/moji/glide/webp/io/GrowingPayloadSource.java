@@ -0,0 +1,58 @@
+package com.moji.glide.webp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Payloads of a file that is still being received. A single writer appends data while other
+ * threads read the payloads of frames that are already complete.
+ */
+public class GrowingPayloadSource implements PayloadSource {
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private volatile byte[] data;
+    private volatile int length;
+
+    public GrowingPayloadSource(int expectedLength) {
+        data = new byte[Math.max(INITIAL_CAPACITY, expectedLength)];
+    }
+
+    public void append(byte[] buffer, int start, int byteCount) {
+        byte[] current = data;
+        int newLength = length + byteCount;
+        if (newLength > current.length) {
+            // The old array keeps every byte of the complete frames, readers holding it stay valid
+            current = Arrays.copyOf(current, Math.max(newLength, current.length * 2));
+        }
+        System.arraycopy(buffer, start, current, length, byteCount);
+        data = current;
+        length = newLength;
+    }
+
+    /**
+     * @return a buffer over the bytes received so far
+     */
+    public ByteBuffer getData() {
+        return ByteBuffer.wrap(data, 0, length);
+    }
+
+    @Override
+    public void read(int offset, byte[] buffer, int start, int byteCount) throws IOException {
+        int available = length;
+        byte[] current = data;
+        if (offset + byteCount > available) {
+            throw new IOException("Payload not received yet");
+        }
+        System.arraycopy(current, offset, buffer, start, byteCount);
+    }
+
+    @Override
+    public int getResidentSize() {
+        return data.length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
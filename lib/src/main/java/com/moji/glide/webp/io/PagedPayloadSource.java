@@ -0,0 +1,94 @@
+package com.moji.glide.webp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fetch frame payloads on demand with positional reads, only a small LRU window of fixed size
+ * pages stays in memory, however big the file is.
+ * Owns the channel and closes it in {@link #close()}.
+ */
+public class PagedPayloadSource implements PayloadSource {
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int DEFAULT_MAX_PAGES = 8;
+
+    private final FileChannel channel;
+    // Offset of the file region in the channel, payload offsets are relative to it
+    private final long offset;
+    private final int maxPages;
+    /** page number -> page data, in access order */
+    private final LinkedHashMap<Integer, byte[]> pages;
+
+    public PagedPayloadSource(FileChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * @param offset offset of the WebP data in channel
+     */
+    public PagedPayloadSource(FileChannel channel, long offset) {
+        this(channel, offset, DEFAULT_MAX_PAGES);
+    }
+
+    public PagedPayloadSource(FileChannel channel, long offset, int maxPages) {
+        this.channel = channel;
+        this.offset = offset;
+        this.maxPages = Math.max(1, maxPages);
+        this.pages = new LinkedHashMap<>(this.maxPages + 1, 0.75f, true);
+    }
+
+    @Override
+    public synchronized void read(int offset, byte[] buffer, int start, int byteCount) throws IOException {
+        while (byteCount > 0) {
+            int pageNumber = offset >>> PAGE_SHIFT;
+            int pageOffset = offset & (PAGE_SIZE - 1);
+            byte[] page = obtainPage(pageNumber);
+            int count = Math.min(byteCount, PAGE_SIZE - pageOffset);
+            System.arraycopy(page, pageOffset, buffer, start, count);
+            offset += count;
+            start += count;
+            byteCount -= count;
+        }
+    }
+
+    private byte[] obtainPage(int pageNumber) throws IOException {
+        byte[] page = pages.get(pageNumber);
+        if (page != null) {
+            return page;
+        }
+        if (pages.size() >= maxPages) {
+            // Recycle the least recently used page
+            Iterator<Map.Entry<Integer, byte[]>> eldest = pages.entrySet().iterator();
+            page = eldest.next().getValue();
+            eldest.remove();
+        } else {
+            page = new byte[PAGE_SIZE];
+        }
+        ByteBuffer dst = ByteBuffer.wrap(page);
+        long position = offset + ((long) pageNumber << PAGE_SHIFT);
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position + dst.position());
+            if (read == -1) {
+                break;
+            }
+        }
+        pages.put(pageNumber, page);
+        return page;
+    }
+
+    @Override
+    public synchronized int getResidentSize() {
+        return maxPages * PAGE_SIZE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        pages.clear();
+        channel.close();
+    }
+}
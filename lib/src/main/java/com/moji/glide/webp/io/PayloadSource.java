@@ -0,0 +1,20 @@
+package com.moji.glide.webp.io;
+
+import java.io.IOException;
+
+/**
+ * Random access to the frame payloads of a WebP file.
+ */
+public interface PayloadSource extends AutoCloseable {
+    /**
+     * Read exactly byteCount bytes starting at offset of the file.
+     */
+    void read(int offset, byte[] buffer, int start, int byteCount) throws IOException;
+
+    /**
+     * @return bytes of the file held in memory by this source
+     */
+    int getResidentSize();
+
+    void close() throws IOException;
+}
@@ -74,7 +74,7 @@ public class ANMFChunk extends BaseChunk {
      * 1: Do not blend. After disposing of the previous frame,
      * render the current frame on the canvas by overwriting the rectangle covered by the current frame.
      */
-    private static final int FLAG_BLENDING_METHOD = 0x2;
+    static final int FLAG_BLENDING_METHOD = 0x2;
 
     /**
      * Disposal method (D): 1 bit
@@ -84,7 +84,7 @@ public class ANMFChunk extends BaseChunk {
      * <p>
      * 1: Dispose to background color. Fill the rectangle on the canvas covered by the current frame with background color specified in the ANIM chunk.
      */
-    private static final int FLAG_DISPOSAL_METHOD = 0x1;
+    static final int FLAG_DISPOSAL_METHOD = 0x1;
 
     public ALPHChunk alphChunk;
 
@@ -0,0 +1,53 @@
+package com.moji.glide.webp.parser;
+
+import com.moji.glide.webp.io.ByteBufferWebPReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Build a {@link WebpFrameIndex} while the file is still arriving, every top level chunk is
+ * indexed as soon as all of its bytes are available, so ANMF frames become playable one by one.
+ */
+public class IncrementalWebPParser {
+    private static final int RIFF_HEADER_SIZE = 12;
+
+    private final WebpFrameIndex index = new WebpFrameIndex();
+    /** Offset of the first chunk that hasn't been indexed yet, 0 before the RIFF header. */
+    private int offset;
+
+    public WebpFrameIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Index the chunks that have become complete.
+     *
+     * @param data all the bytes of the file received so far, starting at index 0
+     */
+    public void parse(ByteBuffer data) throws IOException {
+        ByteBufferWebPReader reader = new ByteBufferWebPReader(data);
+        int limit = data.limit();
+        if (offset == 0) {
+            if (limit < RIFF_HEADER_SIZE) {
+                return;
+            }
+            if (reader.getUInt32(0) != WebPParser.RIFF_ID || reader.getUInt32(8) != WebPParser.WEBP_ID) {
+                throw new WebPParser.FormatException();
+            }
+            offset = RIFF_HEADER_SIZE;
+        }
+        while (offset + BaseChunk.CHUNCK_HEADER_OFFSET <= limit) {
+            int chunkSize = reader.getUInt32(offset + 4);
+            int chunkEnd = offset + BaseChunk.CHUNCK_HEADER_OFFSET + chunkSize + (chunkSize & 1);
+            if (chunkSize < 0 || chunkEnd > limit) {
+                // Wait for the rest of the chunk
+                return;
+            }
+            reader.reset();
+            reader.skip(offset);
+            WebPParser.parseIndexChunk(reader, index);
+            offset = chunkEnd;
+        }
+    }
+}
@@ -29,8 +29,8 @@ public class VP8XChunk extends BaseChunk {
      * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
      */
 
-    private static final int FLAG_ANIMATION = 0x2;
-    private static final int FLAG_ALPHA = 0x10;
+    static final int FLAG_ANIMATION = 0x2;
+    static final int FLAG_ALPHA = 0x10;
     /**
      * Reserved (Rsv): 2 bits
      * SHOULD be 0.
@@ -70,7 +70,7 @@ public class VP8XChunk extends BaseChunk {
     /**
      * @return Set if this is an animated image. Data in 'ANIM' and 'ANMF' chunks should be used to control the animation.
      */
-    boolean animation() {
+    public boolean animation() {
         return (flags & FLAG_ANIMATION) == FLAG_ANIMATION;
     }
 
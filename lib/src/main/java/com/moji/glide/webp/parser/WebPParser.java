@@ -3,6 +3,7 @@ package com.moji.glide.webp.parser;
 import android.content.Context;
 
 
+import com.moji.glide.webp.io.ByteBufferWebPReader;
 import com.moji.glide.webp.io.Reader;
 import com.moji.glide.webp.io.StreamReader;
 import com.moji.glide.webp.io.WebPReader;
@@ -10,10 +11,22 @@ import com.moji.glide.webp.io.WebPReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class WebPParser {
+    /**
+     * RIFF header (12 bytes) + VP8X chunk header (8 bytes) + VP8X payload (10 bytes)
+     */
+    public static final int ANIMATED_HEADER_SIZE = 12 + BaseChunk.CHUNCK_HEADER_OFFSET + 10;
+
+    static final int RIFF_ID = BaseChunk.fourCCToInt("RIFF");
+    static final int WEBP_ID = BaseChunk.fourCCToInt("WEBP");
+    private static final int VP8X_FLAGS_OFFSET = 12 + BaseChunk.CHUNCK_HEADER_OFFSET;
+    // Frame position, size, duration and flags in front of the frame data of an ANMF chunk
+    private static final int ANMF_HEADER_SIZE = 16;
+
     static class FormatException extends IOException {
         FormatException() {
             super("WebP Format error");
@@ -74,6 +87,10 @@ public class WebPParser {
         }
     }
 
+    public static boolean isAWebP(ByteBuffer buffer) {
+        return isAWebP(new ByteBufferWebPReader(buffer));
+    }
+
     public static boolean isAWebP(Reader in) {
         WebPReader reader = (in instanceof WebPReader) ? (WebPReader) in : new WebPReader(in);
         try {
@@ -98,6 +115,50 @@ public class WebPParser {
         return false;
     }
 
+    /**
+     * Check the leading bytes of a file without walking its chunks, an animated WebP always
+     * starts with a VP8X chunk that has the animation flag set.
+     *
+     * @param header at least {@link #ANIMATED_HEADER_SIZE} bytes from the start of the file
+     * @param length the number of valid bytes in header
+     */
+    public static boolean isAnimatedWebPHeader(byte[] header, int length) {
+        return parseAnimatedHeader(ByteBuffer.wrap(header, 0, length)) != null;
+    }
+
+    /**
+     * Read the VP8X chunk of an animated WebP with absolute reads, the position of the buffer is
+     * left untouched.
+     *
+     * @return the VP8X chunk, or null if the buffer doesn't start with an animated WebP header
+     */
+    public static VP8XChunk parseAnimatedHeader(ByteBuffer buffer) {
+        if (buffer.limit() < ANIMATED_HEADER_SIZE
+                || readUInt32(buffer, 0) != RIFF_ID
+                || readUInt32(buffer, 8) != WEBP_ID
+                || readUInt32(buffer, 12) != VP8XChunk.ID) {
+            return null;
+        }
+        VP8XChunk chunk = new VP8XChunk();
+        chunk.chunkFourCC = VP8XChunk.ID;
+        chunk.offset = 12;
+        chunk.payloadSize = readUInt32(buffer, 16);
+        chunk.flags = buffer.get(VP8X_FLAGS_OFFSET);
+        chunk.canvasWidth = readUInt24(buffer, VP8X_FLAGS_OFFSET + 4) + 1;
+        chunk.canvasHeight = readUInt24(buffer, VP8X_FLAGS_OFFSET + 7) + 1;
+        return chunk.animation() ? chunk : null;
+    }
+
+    private static int readUInt24(ByteBuffer buf, int offset) {
+        return buf.get(offset) & 0xff
+                | (buf.get(offset + 1) & 0xff) << 8
+                | (buf.get(offset + 2) & 0xff) << 16;
+    }
+
+    private static int readUInt32(ByteBuffer buf, int offset) {
+        return readUInt24(buf, offset) | (buf.get(offset + 3) & 0xff) << 24;
+    }
+
     public static List<BaseChunk> parse(WebPReader reader) throws IOException {
         //@link {https://developers.google.com/speed/webp/docs/riff_container#webp_file_header}
         if (!reader.matchFourCC("RIFF")) {
@@ -114,6 +175,117 @@ public class WebPParser {
         return chunks;
     }
 
+    /**
+     * Walk the top level chunks once and collect the animation parameters into a
+     * {@link WebpFrameIndex}, no chunk object is created for the frames.
+     *
+     * @param header VP8X chunk already read by {@link #parseAnimatedHeader(ByteBuffer)}, or null
+     */
+    public static WebpFrameIndex parseIndex(WebPReader reader, VP8XChunk header) throws IOException {
+        WebpFrameIndex index = new WebpFrameIndex();
+        reader.reset();
+        if (header == null) {
+            if (!reader.matchFourCC("RIFF")) {
+                throw new FormatException();
+            }
+            reader.skip(4);
+            if (!reader.matchFourCC("WEBP")) {
+                throw new FormatException();
+            }
+        } else {
+            index.canvasWidth = header.canvasWidth;
+            index.canvasHeight = header.canvasHeight;
+            reader.skip(header.offset + BaseChunk.CHUNCK_HEADER_OFFSET
+                    + header.payloadSize + (header.payloadSize & 1));
+        }
+        while (reader.available() > 0) {
+            parseIndexChunk(reader, index);
+        }
+        return index;
+    }
+
+    /**
+     * Cheap sanity check of an index that wasn't parsed from buffer, e.g. loaded from a cache:
+     * the canvas must match the VP8X chunk, the first and last frames must sit in ANMF chunks
+     * and every payload must lie inside the buffer.
+     */
+    public static boolean matchesIndex(ByteBuffer buffer, WebpFrameIndex index) {
+        VP8XChunk header = parseAnimatedHeader(buffer);
+        int frameCount = index.getFrameCount();
+        if (header == null || frameCount == 0
+                || header.canvasWidth != index.getCanvasWidth()
+                || header.canvasHeight != index.getCanvasHeight()) {
+            return false;
+        }
+        int limit = buffer.limit();
+        for (int i = 0; i < frameCount; i++) {
+            int offset = index.getPayloadOffset(i);
+            if (offset < ANIMATED_HEADER_SIZE || offset + index.getPayloadSize(i) > limit) {
+                return false;
+            }
+        }
+        return isANMFPayload(buffer, index.getPayloadOffset(0))
+                && isANMFPayload(buffer, index.getPayloadOffset(frameCount - 1));
+    }
+
+    private static boolean isANMFPayload(ByteBuffer buffer, int payloadOffset) {
+        return readUInt32(buffer, payloadOffset - ANMF_HEADER_SIZE - BaseChunk.CHUNCK_HEADER_OFFSET) == ANMFChunk.ID;
+    }
+
+    /**
+     * Read the top level chunk at the reader position into index and move to the next one.
+     */
+    static void parseIndexChunk(WebPReader reader, WebpFrameIndex index) throws IOException {
+        int offset = reader.position();
+        int chunkFourCC = reader.getFourCC();
+        int chunkSize = reader.getUInt32();
+        int chunkEnd = offset + BaseChunk.CHUNCK_HEADER_OFFSET + chunkSize + (chunkSize & 1);
+        if (chunkFourCC == VP8XChunk.ID) {
+            reader.skip(4);
+            index.canvasWidth = reader.get1Based();
+            index.canvasHeight = reader.get1Based();
+        } else if (chunkFourCC == ANIMChunk.ID) {
+            index.backgroundColor = reader.getUInt32();
+            index.loopCount = reader.getUInt16();
+        } else if (chunkFourCC == ANMFChunk.ID) {
+            parseFrame(reader, index, offset, chunkSize);
+        }
+        reader.skip(chunkEnd - reader.position());
+    }
+
+    private static void parseFrame(WebPReader reader, WebpFrameIndex index, int offset, int chunkSize)
+            throws IOException {
+        int frameX = reader.getUInt24() * 2;
+        int frameY = reader.getUInt24() * 2;
+        int frameWidth = reader.get1Based();
+        int frameHeight = reader.get1Based();
+        int frameDuration = reader.getUInt24();
+        int anmfFlags = reader.peek();
+        int frameFlags = 0;
+        if ((anmfFlags & ANMFChunk.FLAG_BLENDING_METHOD) == 0) {
+            frameFlags |= WebpFrameIndex.FLAG_BLEND;
+        }
+        if ((anmfFlags & ANMFChunk.FLAG_DISPOSAL_METHOD) != 0) {
+            frameFlags |= WebpFrameIndex.FLAG_DISPOSE;
+        }
+        // Frame data is an optional ALPH chunk followed by the VP8/VP8L bitstream
+        int frameEnd = offset + BaseChunk.CHUNCK_HEADER_OFFSET + chunkSize;
+        while (reader.position() + BaseChunk.CHUNCK_HEADER_OFFSET <= frameEnd) {
+            int subFourCC = reader.getFourCC();
+            int subSize = reader.getUInt32();
+            if (subFourCC == ALPHChunk.ID) {
+                frameFlags |= WebpFrameIndex.FLAG_ALPHA;
+            } else if (subFourCC == VP8Chunk.ID || subFourCC == VP8LChunk.ID) {
+                break;
+            }
+            reader.skip(subSize + (subSize & 1));
+        }
+        index.addFrame(frameX, frameY, frameWidth, frameHeight, frameDuration,
+                offset + BaseChunk.CHUNCK_HEADER_OFFSET + ANMF_HEADER_SIZE,
+                chunkSize - ANMF_HEADER_SIZE + (chunkSize & 1),
+                frameFlags);
+    }
+
     static BaseChunk parseChunk(WebPReader reader) throws IOException {
         //@link {https://developers.google.com/speed/webp/docs/riff_container#riff_file_format}
         int offset = reader.position();
@@ -0,0 +1,251 @@
+package com.moji.glide.webp.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Frame table of an animated WebP, built in one pass by {@link WebPParser#parseIndex} without
+ * creating a chunk object per frame.
+ * Every frame is a slot in the primitive arrays below.
+ * <p>
+ * While {@link IncrementalWebPParser} is still appending frames, other threads may read every
+ * frame below {@link #getFrameCount()}: the arrays are written before the count is published.
+ */
+public final class WebpFrameIndex {
+    /**
+     * Alpha-blend the frame with the previous canvas, see {@link ANMFChunk#blendingMethod()}
+     */
+    public static final int FLAG_BLEND = 0x1;
+    /**
+     * Dispose the frame rect to background after display, see {@link ANMFChunk#disposalMethod()}
+     */
+    public static final int FLAG_DISPOSE = 0x2;
+    /**
+     * The frame carries an ALPH chunk
+     */
+    public static final int FLAG_ALPHA = 0x4;
+    /**
+     * The frame covers the whole canvas, computed when the frame is added
+     */
+    public static final int FLAG_FULL_FRAME = 0x8;
+
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Serialized form, see {@link #writeTo}. Bump the version whenever the layout or the meaning
+     * of a field changes so that stale entries are ignored.
+     */
+    private static final int SERIAL_MAGIC = BaseChunk.fourCCToInt("WIDX");
+    private static final int SERIAL_VERSION = 1;
+
+    int canvasWidth;
+    int canvasHeight;
+    int loopCount;
+    int backgroundColor;
+
+    private volatile int frameCount;
+    private int maxFrameWidth;
+    private int maxFrameHeight;
+    private int[] frameX = new int[INITIAL_CAPACITY];
+    private int[] frameY = new int[INITIAL_CAPACITY];
+    private int[] frameWidth = new int[INITIAL_CAPACITY];
+    private int[] frameHeight = new int[INITIAL_CAPACITY];
+    private int[] durations = new int[INITIAL_CAPACITY];
+    private int[] payloadOffsets = new int[INITIAL_CAPACITY];
+    private int[] payloadSizes = new int[INITIAL_CAPACITY];
+    private int[] flags = new int[INITIAL_CAPACITY];
+    /**
+     * Frames that can be rendered on a cleared canvas without the previous frames, and for every
+     * frame the closest key frame at or before it, where compositing has to start.
+     */
+    private final BitSet keyFrames = new BitSet();
+    private int[] nearestKeyFrames = new int[INITIAL_CAPACITY];
+
+    WebpFrameIndex() {
+    }
+
+    void addFrame(int x, int y, int width, int height, int duration,
+                  int payloadOffset, int payloadSize, int frameFlags) {
+        if (frameCount == frameX.length) {
+            int capacity = frameCount * 2;
+            frameX = Arrays.copyOf(frameX, capacity);
+            frameY = Arrays.copyOf(frameY, capacity);
+            frameWidth = Arrays.copyOf(frameWidth, capacity);
+            frameHeight = Arrays.copyOf(frameHeight, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            payloadOffsets = Arrays.copyOf(payloadOffsets, capacity);
+            payloadSizes = Arrays.copyOf(payloadSizes, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            nearestKeyFrames = Arrays.copyOf(nearestKeyFrames, capacity);
+        }
+        int i = frameCount;
+        if (x == 0 && y == 0 && width == canvasWidth && height == canvasHeight) {
+            frameFlags |= FLAG_FULL_FRAME;
+        } else {
+            frameFlags &= ~FLAG_FULL_FRAME;
+        }
+        frameX[i] = x;
+        frameY[i] = y;
+        frameWidth[i] = width;
+        frameHeight[i] = height;
+        durations[i] = duration;
+        payloadOffsets[i] = payloadOffset;
+        payloadSizes[i] = payloadSize;
+        flags[i] = frameFlags;
+        maxFrameWidth = Math.max(maxFrameWidth, width);
+        maxFrameHeight = Math.max(maxFrameHeight, height);
+        if (isKeyFrame(i, frameFlags)) {
+            keyFrames.set(i);
+            nearestKeyFrames[i] = i;
+        } else {
+            nearestKeyFrames[i] = nearestKeyFrames[i - 1];
+        }
+        frameCount++;
+    }
+
+    /**
+     * A frame is a key frame if it is the first one, if it replaces the whole canvas, or if
+     * the previous frame covered the whole canvas and was disposed to background.
+     */
+    private boolean isKeyFrame(int frame, int frameFlags) {
+        if (frame == 0) {
+            return true;
+        }
+        if ((frameFlags & (FLAG_BLEND | FLAG_FULL_FRAME)) == FLAG_FULL_FRAME) {
+            return true;
+        }
+        int previousFlags = flags[frame - 1];
+        return (previousFlags & (FLAG_DISPOSE | FLAG_FULL_FRAME)) == (FLAG_DISPOSE | FLAG_FULL_FRAME);
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return width of the widest frame, a bitmap this big can hold any frame with the height below
+     */
+    public int getMaxFrameWidth() {
+        return maxFrameWidth;
+    }
+
+    public int getMaxFrameHeight() {
+        return maxFrameHeight;
+    }
+
+    public int getFrameX(int frame) {
+        return frameX[frame];
+    }
+
+    public int getFrameY(int frame) {
+        return frameY[frame];
+    }
+
+    public int getFrameWidth(int frame) {
+        return frameWidth[frame];
+    }
+
+    public int getFrameHeight(int frame) {
+        return frameHeight[frame];
+    }
+
+    /**
+     * @return the frame duration in milliseconds as stored in the file
+     */
+    public int getDuration(int frame) {
+        return durations[frame];
+    }
+
+    /**
+     * @return offset of the frame data (ALPH + VP8/VP8L) inside the source
+     */
+    public int getPayloadOffset(int frame) {
+        return payloadOffsets[frame];
+    }
+
+    public int getPayloadSize(int frame) {
+        return payloadSizes[frame];
+    }
+
+    public boolean hasFlag(int frame, int flag) {
+        return (flags[frame] & flag) != 0;
+    }
+
+    public boolean isKeyFrame(int frame) {
+        return keyFrames.get(frame);
+    }
+
+    /**
+     * @return the last key frame at or before frame
+     */
+    public int getNearestKeyFrame(int frame) {
+        return nearestKeyFrames[frame];
+    }
+
+    /**
+     * Write a compact binary copy of this index, it can be loaded back by {@link #readFrom}
+     * instead of parsing the file again.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int count = frameCount;
+        out.writeInt(SERIAL_MAGIC);
+        out.writeInt(SERIAL_VERSION);
+        out.writeInt(canvasWidth);
+        out.writeInt(canvasHeight);
+        out.writeInt(loopCount);
+        out.writeInt(backgroundColor);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(frameX[i]);
+            out.writeInt(frameY[i]);
+            out.writeInt(frameWidth[i]);
+            out.writeInt(frameHeight[i]);
+            out.writeInt(durations[i]);
+            out.writeInt(payloadOffsets[i]);
+            out.writeInt(payloadSizes[i]);
+            out.writeByte(flags[i]);
+        }
+    }
+
+    /**
+     * @return the index written by {@link #writeTo}
+     * @throws IOException if the data is truncated or was written by another version
+     */
+    public static WebpFrameIndex readFrom(DataInput in) throws IOException {
+        if (in.readInt() != SERIAL_MAGIC || in.readInt() != SERIAL_VERSION) {
+            throw new IOException("Unsupported frame index format");
+        }
+        WebpFrameIndex index = new WebpFrameIndex();
+        index.canvasWidth = in.readInt();
+        index.canvasHeight = in.readInt();
+        index.loopCount = in.readInt();
+        index.backgroundColor = in.readInt();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid frame count " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            index.addFrame(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readInt(), in.readUnsignedByte());
+        }
+        return index;
+    }
+}
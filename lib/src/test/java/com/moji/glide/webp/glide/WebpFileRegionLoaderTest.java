@@ -0,0 +1,167 @@
+package com.moji.glide.webp.glide;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.moji.glide.webp.WebpGlideLibraryModule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local Uris, paths and files must reach the mapped decoder rather than Glide's stream and
+ * file loaders, which are registered first.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WebpFileRegionLoaderTest {
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 80;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+    private Glide glide;
+    private Registry registry;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        glide = Glide.get(context);
+        registry = glide.getRegistry();
+        // No generated app module in a library test, register the components by hand
+        new WebpGlideLibraryModule().registerComponents(context, glide, registry);
+    }
+
+    @After
+    public void tearDown() {
+        Glide.tearDown();
+    }
+
+    @Test
+    public void fileUriIsMapped() throws IOException {
+        assertMapped(Uri.fromFile(createAnimatedWebP()));
+    }
+
+    @Test
+    public void fileIsMapped() throws IOException {
+        assertMapped(createAnimatedWebP());
+    }
+
+    @Test
+    public void pathIsMapped() throws IOException {
+        assertMapped(createAnimatedWebP().getAbsolutePath());
+    }
+
+    @Test
+    public void assetUriIsOpenedAsRegion() {
+        ModelLoader.LoadData<?> loadData = getStartedLoadData(Uri.parse("file:///android_asset/sticker.webp"));
+        assertEquals(WebpFileRegion.class, loadData.fetcher.getDataClass());
+    }
+
+    private void assertMapped(Object model) {
+        ModelLoader.LoadData<?> loadData = getStartedLoadData(model);
+        assertEquals(WebpFileRegion.class, loadData.fetcher.getDataClass());
+        WebpFileRegion region = (WebpFileRegion) fetch(loadData.fetcher);
+        try {
+            WebpFileRegionDecoder decoder = new WebpFileRegionDecoder(
+                    new ByteBufferWebpDecoder(context, glide.getArrayPool(), glide.getBitmapPool()));
+            assertTrue(decoder.handles(region, new Options()));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        } finally {
+            loadData.fetcher.cleanup();
+        }
+    }
+
+    /**
+     * @return the load data Glide starts for a drawable request of model: the first one whose
+     * data can be decoded to a drawable
+     */
+    private <Model> ModelLoader.LoadData<?> getStartedLoadData(Model model) {
+        List<ModelLoader<Model, ?>> loaders = registry.getModelLoaders(model);
+        for (ModelLoader<Model, ?> loader : loaders) {
+            ModelLoader.LoadData<?> loadData = loader.buildLoadData(model, WIDTH, HEIGHT, new Options());
+            if (loadData != null
+                    && registry.getLoadPath(loadData.fetcher.getDataClass(), Object.class, Drawable.class) != null) {
+                return loadData;
+            }
+        }
+        throw new AssertionError("No loader for " + model);
+    }
+
+    private static Object fetch(DataFetcher<?> fetcher) {
+        final Object[] result = new Object[1];
+        fetcher.loadData(Priority.NORMAL, new DataFetcher.DataCallback<Object>() {
+            @Override
+            public void onDataReady(Object data) {
+                result[0] = data;
+            }
+
+            @Override
+            public void onLoadFailed(Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        assertNotNull(result[0]);
+        return result[0];
+    }
+
+    /**
+     * Only the header is read before the decoder is picked, the frames don't matter.
+     */
+    private File createAnimatedWebP() throws IOException {
+        byte[] header = new byte[30];
+        putFourCC(header, 0, "RIFF");
+        putInt(header, 4, header.length - 8, 4);
+        putFourCC(header, 8, "WEBP");
+        putFourCC(header, 12, "VP8X");
+        putInt(header, 16, 10, 4);
+        // Animation flag
+        header[20] = 0x02;
+        putInt(header, 24, WIDTH - 1, 3);
+        putInt(header, 27, HEIGHT - 1, 3);
+        File file = folder.newFile("sticker.webp");
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(header);
+        }
+        return file;
+    }
+
+    private static void putFourCC(byte[] buffer, int offset, String fourCC) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) fourCC.charAt(i);
+        }
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            buffer[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.moji.glide.webp.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A WebP stored inside a bigger file, as an asset is inside the apk, must be read relative to
+ * its offset and not past its end.
+ */
+public class FileChannelRegionTest {
+    private static final int OFFSET = 1000;
+    private static final int LENGTH = 200 * 1024;
+
+    @Test
+    public void pagedSourceReadsRelativeToOffset() throws IOException {
+        File file = createFile();
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            PagedPayloadSource source = new PagedPayloadSource(channel, OFFSET);
+            // Across a page boundary
+            byte[] buffer = new byte[300];
+            int start = 65536 - 100;
+            source.read(start, buffer, 0, buffer.length);
+            for (int i = 0; i < buffer.length; i++) {
+                assertEquals(valueAt(start + i), buffer[i]);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readerStopsAtEndOfRegion() throws IOException {
+        File file = createFile();
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            FileChannelReader reader = new FileChannelReader(channel, OFFSET, LENGTH);
+            assertEquals(LENGTH, reader.available());
+            byte[] buffer = new byte[LENGTH];
+            reader.read(buffer, 0, LENGTH);
+            for (int i = 0; i < LENGTH; i += 997) {
+                assertEquals(valueAt(i), buffer[i]);
+            }
+            boolean failed = false;
+            try {
+                reader.peek();
+            } catch (IOException e) {
+                failed = true;
+            }
+            // The bytes after the region belong to another file
+            assertTrue(failed);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void streamDoesNotMoveChannel() throws IOException {
+        File file = createFile();
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            FileChannelReader reader = new FileChannelReader(channel, OFFSET, LENGTH);
+            reader.skip(LENGTH - 10);
+            InputStream stream = reader.toInputStream();
+            byte[] buffer = new byte[20];
+            assertEquals(10, stream.read(buffer, 0, buffer.length));
+            assertEquals(valueAt(LENGTH - 10), buffer[0]);
+            assertEquals(-1, stream.read());
+            assertEquals(0, channel.position());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte valueAt(int regionOffset) {
+        return (byte) (regionOffset * 31 + 7);
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("region", ".bin");
+        byte[] data = new byte[OFFSET + LENGTH + 4096];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i < OFFSET || i >= OFFSET + LENGTH ? (byte) 0xEE : valueAt(i - OFFSET);
+        }
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(data);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,219 @@
+package com.moji.glide.webp.parser;
+
+import com.moji.glide.webp.io.ByteBufferWebPReader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feed an animated WebP to {@link IncrementalWebPParser} through a stream that only returns a
+ * few bytes per read, as a slow download would.
+ */
+public class IncrementalWebPParserTest {
+    private static final int CANVAS_WIDTH = 120;
+    private static final int CANVAS_HEIGHT = 80;
+    // x, y, width, height, duration, alpha and bitstream size of each frame
+    private static final int[][] FRAMES = {
+            {0, 0, 120, 80, 100, 0, 301},
+            {10, 20, 40, 30, 50, 1, 64},
+            {60, 40, 20, 16, 70, 0, 1},
+            {0, 0, 120, 80, 30, 1, 157},
+            {100, 60, 20, 20, 100, 0, 12},
+    };
+
+    @Test
+    public void framesBecomeAvailableInOrder() throws IOException {
+        byte[] file = createAnimatedWebP();
+        int[] frameEnds = getFrameChunkEnds(file);
+        for (int maxRead : new int[]{1, 7, 64, 1000}) {
+            IncrementalWebPParser parser = new IncrementalWebPParser();
+            InputStream stream = new ThrottledInputStream(file, maxRead);
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            byte[] buffer = new byte[maxRead];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                received.write(buffer, 0, read);
+                parser.parse(ByteBuffer.wrap(received.toByteArray()));
+
+                WebpFrameIndex index = parser.getIndex();
+                int expectedCount = 0;
+                while (expectedCount < frameEnds.length && frameEnds[expectedCount] <= received.size()) {
+                    expectedCount++;
+                }
+                assertEquals("frames after " + received.size() + " bytes", expectedCount, index.getFrameCount());
+                for (int i = 0; i < index.getFrameCount(); i++) {
+                    assertFrame(i, index);
+                }
+            }
+            assertEquals(FRAMES.length, parser.getIndex().getFrameCount());
+            assertIndexEquals(parseFully(file), parser.getIndex());
+        }
+    }
+
+    @Test
+    public void finalIndexMatchesFullParse() throws IOException {
+        byte[] file = createAnimatedWebP();
+        IncrementalWebPParser parser = new IncrementalWebPParser();
+        parser.parse(ByteBuffer.wrap(file));
+        WebpFrameIndex expected = parseFully(file);
+        assertIndexEquals(expected, parser.getIndex());
+        assertEquals(CANVAS_WIDTH, expected.getCanvasWidth());
+        assertEquals(CANVAS_HEIGHT, expected.getCanvasHeight());
+        assertTrue(WebPParser.matchesIndex(ByteBuffer.wrap(file), parser.getIndex()));
+    }
+
+    private static void assertFrame(int i, WebpFrameIndex index) {
+        int[] frame = FRAMES[i];
+        assertEquals(frame[0], index.getFrameX(i));
+        assertEquals(frame[1], index.getFrameY(i));
+        assertEquals(frame[2], index.getFrameWidth(i));
+        assertEquals(frame[3], index.getFrameHeight(i));
+        assertEquals(frame[4], index.getDuration(i));
+        assertEquals(frame[5] != 0, index.hasFlag(i, WebpFrameIndex.FLAG_ALPHA));
+    }
+
+    private static WebpFrameIndex parseFully(byte[] file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        try (ByteBufferWebPReader reader = new ByteBufferWebPReader(buffer)) {
+            return WebPParser.parseIndex(reader, WebPParser.parseAnimatedHeader(buffer));
+        }
+    }
+
+    private static void assertIndexEquals(WebpFrameIndex expected, WebpFrameIndex actual) {
+        assertEquals(expected.getCanvasWidth(), actual.getCanvasWidth());
+        assertEquals(expected.getCanvasHeight(), actual.getCanvasHeight());
+        assertEquals(expected.getLoopCount(), actual.getLoopCount());
+        assertEquals(expected.getBackgroundColor(), actual.getBackgroundColor());
+        assertEquals(expected.getFrameCount(), actual.getFrameCount());
+        for (int i = 0; i < expected.getFrameCount(); i++) {
+            assertEquals(expected.getFrameX(i), actual.getFrameX(i));
+            assertEquals(expected.getFrameY(i), actual.getFrameY(i));
+            assertEquals(expected.getFrameWidth(i), actual.getFrameWidth(i));
+            assertEquals(expected.getFrameHeight(i), actual.getFrameHeight(i));
+            assertEquals(expected.getDuration(i), actual.getDuration(i));
+            assertEquals(expected.getPayloadOffset(i), actual.getPayloadOffset(i));
+            assertEquals(expected.getPayloadSize(i), actual.getPayloadSize(i));
+            assertEquals(expected.isKeyFrame(i), actual.isKeyFrame(i));
+            assertEquals(expected.getNearestKeyFrame(i), actual.getNearestKeyFrame(i));
+        }
+    }
+
+    /**
+     * @return offset of the end of each ANMF chunk, padding included
+     */
+    private static int[] getFrameChunkEnds(byte[] file) {
+        int[] ends = new int[FRAMES.length];
+        int frame = 0;
+        int offset = 12;
+        while (offset < file.length) {
+            int size = readInt(file, offset + 4);
+            int end = offset + 8 + size + (size & 1);
+            if (file[offset] == 'A' && file[offset + 1] == 'N' && file[offset + 2] == 'M' && file[offset + 3] == 'F') {
+                ends[frame++] = end;
+            }
+            offset = end;
+        }
+        return ends;
+    }
+
+    private static byte[] createAnimatedWebP() {
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+
+        ByteArrayOutputStream vp8x = new ByteArrayOutputStream();
+        // Animation and alpha flags, then reserved bytes
+        writeInt(vp8x, 0x12, 4);
+        writeInt(vp8x, CANVAS_WIDTH - 1, 3);
+        writeInt(vp8x, CANVAS_HEIGHT - 1, 3);
+        writeChunk(chunks, "VP8X", vp8x.toByteArray());
+
+        ByteArrayOutputStream anim = new ByteArrayOutputStream();
+        writeInt(anim, 0xff000000, 4);
+        writeInt(anim, 3, 2);
+        writeChunk(chunks, "ANIM", anim.toByteArray());
+
+        for (int[] frame : FRAMES) {
+            ByteArrayOutputStream anmf = new ByteArrayOutputStream();
+            writeInt(anmf, frame[0] / 2, 3);
+            writeInt(anmf, frame[1] / 2, 3);
+            writeInt(anmf, frame[2] - 1, 3);
+            writeInt(anmf, frame[3] - 1, 3);
+            writeInt(anmf, frame[4], 3);
+            // Dispose to background, no blending
+            anmf.write(0x03);
+            if (frame[5] != 0) {
+                writeChunk(anmf, "ALPH", new byte[5]);
+            }
+            // The parser only indexes payloads, their content doesn't matter
+            writeChunk(anmf, "VP8 ", new byte[frame[6]]);
+            writeChunk(chunks, "ANMF", anmf.toByteArray());
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeFourCC(file, "RIFF");
+        writeInt(file, chunks.size() + 4, 4);
+        writeFourCC(file, "WEBP");
+        byte[] body = chunks.toByteArray();
+        file.write(body, 0, body.length);
+        return file.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String fourCC, byte[] payload) {
+        writeFourCC(out, fourCC);
+        writeInt(out, payload.length, 4);
+        out.write(payload, 0, payload.length);
+        if ((payload.length & 1) != 0) {
+            out.write(0);
+        }
+    }
+
+    private static void writeFourCC(ByteArrayOutputStream out, String fourCC) {
+        for (int i = 0; i < 4; i++) {
+            out.write(fourCC.charAt(i));
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write(value >>> (8 * i) & 0xff);
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return data[offset] & 0xff | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private static final class ThrottledInputStream extends InputStream {
+        private final byte[] data;
+        private final int maxRead;
+        private int position;
+
+        ThrottledInputStream(byte[] data, int maxRead) {
+            this.data = data;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, maxRead), data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}